@@ -3,6 +3,7 @@ package com.yejianfengblue.ldplayer;
 import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
 import com.yejianfengblue.ldplayer.command.CommandExecutionResult;
 import com.yejianfengblue.ldplayer.command.CommandExecutor;
+import com.yejianfengblue.ldplayer.command.CommandLane;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -19,6 +20,8 @@ class Ldconsole {
 
     private static final String LDCONSOLE = "ldconsole";
 
+    private final CommandExecutor commandExecutor;
+
     /**
      * Because ldconsole erases the exit value of adb command, it's unsafe to detect failure based on exit value.
      *
@@ -28,7 +31,7 @@ class Ldconsole {
      * @deprecated Because one adbd in one emulator can accept one connection at most, and emulator startup
      * automatically starts adb server and emulator is auto connected, which prevent remote PC from connecting to the
      * emulator. Currently at a workaround, the adb.exe is deleted from emulator installation directory, which also
-     * make it impossible to run adb command.
+     * make it impossible to run adb command. Use {@link com.yejianfengblue.ldplayer.adb.AdbClient} instead.
      */
     @Deprecated
     List<String> adb(int index, String command) throws InterruptedException, CommandExecutionFailureException {
@@ -36,7 +39,7 @@ class Ldconsole {
         String cmd = LDCONSOLE + " adb" +
                 " --index " + index +
                 " --command \"" + command + "\"";
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         return commandExecutionResult.getOutputLines();
     }
 
@@ -52,7 +55,7 @@ class Ldconsole {
 
         // copy command exit value is the new index
         // copy command doesn't have output if succeeds
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION,
                 LDCONSOLE + " copy" +
                         " --name " + name +
                         " --from " + fromIndex);
@@ -80,7 +83,7 @@ class Ldconsole {
         String cmd = LDCONSOLE + " installapp" +
                 " --index " + index +
                 " --filename " + "\"" + apkPath + "\"";
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
             String errMsg = String.format("Fail to install %s to index %d. %s", apkPath, index,
                     String.join("\n", commandExecutionResult.getOutputLines()));
@@ -99,7 +102,7 @@ class Ldconsole {
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
         String cmd = LDCONSOLE + " isrunning --index " + index;
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.PROBE, cmd);
         List<String> isRunningOutput = commandExecutionResult.getOutputLines();
         if (commandExecutionResult.getExitValue() == 0) {
 
@@ -128,7 +131,8 @@ class Ldconsole {
     void launch(int index)
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(LDCONSOLE + " launch --index " + index);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION,
+                LDCONSOLE + " launch --index " + index);
 
         if (commandExecutionResult.getExitValue() == 0) {
             List<String> outputLines = commandExecutionResult.getOutputLines();
@@ -149,11 +153,11 @@ class Ldconsole {
     List<LdplayerState> list() throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
         String cmd = LDCONSOLE + " list2";
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.PROBE, cmd);
 
         // It's a bug that "ldconsole list2" doesn't output anything even though emulator does exist
         while (commandExecutionResult.getExitValue() == 0 && commandExecutionResult.getOutputLines().isEmpty()) {
-            commandExecutionResult = CommandExecutor.execute(cmd);
+            commandExecutionResult = commandExecutor.execute(CommandLane.PROBE, cmd);
         }
         if (commandExecutionResult.getExitValue() == 0) {
             List<String> list2Output = commandExecutionResult.getOutputLines();
@@ -163,7 +167,11 @@ class Ldconsole {
                     .map(columns -> new LdplayerState(
                             Integer.parseInt(columns[0]),
                             columns[1],
-                            "1".equals(columns[4])))
+                            Integer.parseInt(columns[2]),
+                            Integer.parseInt(columns[3]),
+                            "1".equals(columns[4]),
+                            Integer.parseInt(columns[5]),
+                            Integer.parseInt(columns[6])))
                     .collect(Collectors.toList());
         } else {
             String errMsg = "Fail to list";
@@ -173,20 +181,38 @@ class Ldconsole {
     }
 
     Modify.ModifyBuilder modify(int index) {
-        return Modify.builder(index);
+        return Modify.builder(commandExecutor, index);
     }
 
     @Builder(builderMethodName = "internalBuilder")
     static class Modify {
 
+        private final CommandExecutor commandExecutor;
+
         private final int index;
 
         private final String manufacturer;
 
         private final String model;
 
-        static ModifyBuilder builder(int index) {
-            return internalBuilder().index(index);
+        /**
+         * Number of CPU cores
+         */
+        private final Integer cpu;
+
+        private final Integer memoryMb;
+
+        /**
+         * Resolution is modified only if width, height and dpi are all set
+         */
+        private final Integer width;
+
+        private final Integer height;
+
+        private final Integer dpi;
+
+        static ModifyBuilder builder(CommandExecutor commandExecutor, int index) {
+            return internalBuilder().commandExecutor(commandExecutor).index(index);
         }
 
         /**
@@ -206,9 +232,21 @@ class Ldconsole {
                 cmdBuilder.append(" --model ");
                 cmdBuilder.append(model);
             }
+            if (cpu != null) {
+                cmdBuilder.append(" --cpu ");
+                cmdBuilder.append(cpu);
+            }
+            if (memoryMb != null) {
+                cmdBuilder.append(" --memory ");
+                cmdBuilder.append(memoryMb);
+            }
+            if (width != null && height != null && dpi != null) {
+                cmdBuilder.append(" --resolution ");
+                cmdBuilder.append(width).append(',').append(height).append(',').append(dpi);
+            }
 
             String cmd = cmdBuilder.toString();
-            CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+            CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
             if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
                 String errMsg = String.format("Fail to modify index %d. %s",
                         index, String.join("\n", commandExecutionResult.getOutputLines()));
@@ -234,7 +272,7 @@ class Ldconsole {
         String cmd = LDCONSOLE + " push --index " + index +
                 " --remote " + "\"" + remotePath + "\"" +
                 " --local " + "\"" + localPath + "\"";
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
             String errMsg = String.format("Fail to push index %d from local %s to remote %s. %s",
                     index, localPath, remotePath, String.join("\n", commandExecutionResult.getOutputLines()));
@@ -254,7 +292,7 @@ class Ldconsole {
      * @deprecated Because one adbd in one emulator can accept one connection at most, and emulator startup
      * automatically starts adb server and emulator is auto connected, which prevent remote PC from connecting to the
      * emulator. Currently at a workaround, the adb.exe is deleted from emulator installation directory, which also
-     * make it impossible to run adb command.
+     * make it impossible to run adb command. Use {@link com.yejianfengblue.ldplayer.adb.AdbClient} instead.
      */
     @Deprecated
     void putSetting(int index, String namespace, String key, String value)
@@ -262,7 +300,7 @@ class Ldconsole {
 
         String cmd = String.format("%s adb --index %d --command \"shell settings put %s %s %s\"",
                 LDCONSOLE, index, namespace, key, value);
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
             String errMsg = String.format("Fail to push setting for index=%d, namespace=%s, key=%s, value=%s. %s",
                     index, namespace, key, value, String.join("\n", commandExecutionResult.getOutputLines()));
@@ -280,7 +318,7 @@ class Ldconsole {
     void reboot(int index) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
         String cmd = LDCONSOLE + " reboot --index " + index;
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
             String errMsg = String.format("Fail to reboot index %d. %s",
                     index, String.join("\n", commandExecutionResult.getOutputLines()));
@@ -298,11 +336,50 @@ class Ldconsole {
     void quit(int index) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
         String cmd = LDCONSOLE + " quit --index " + index;
-        CommandExecutionResult commandExecutionResult = CommandExecutor.execute(cmd);
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
         if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
             String errMsg = String.format("Fail to quit index %d. %s",
                     index, String.join("\n", commandExecutionResult.getOutputLines()));
             throw new LdplayerFailureException(String.format("Fail to execute command '%s'", cmd));
         }
     }
+
+    /**
+     * @throws InterruptedException             command execution process is interrupted
+     * @throws CommandExecutionFailureException command execution failed due to interruption or output reading failure
+     * @throws LdplayerFailureException         command is executed but considered as failure according to exit value or
+     *                                          output.
+     */
+    void rename(int index, String title)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        String cmd = LDCONSOLE + " rename --index " + index + " --title " + title;
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
+        if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
+            String errMsg = String.format("Fail to rename index %d to %s. %s",
+                    index, title, String.join("\n", commandExecutionResult.getOutputLines()));
+            log.error(errMsg);
+            throw new LdplayerFailureException(errMsg);
+        }
+    }
+
+    /**
+     * Remove the ldplayer and its disk image
+     *
+     * @throws InterruptedException             command execution process is interrupted
+     * @throws CommandExecutionFailureException command execution failed due to interruption or output reading failure
+     * @throws LdplayerFailureException         command is executed but considered as failure according to exit value or
+     *                                          output.
+     */
+    void remove(int index) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        String cmd = LDCONSOLE + " remove --index " + index;
+        CommandExecutionResult commandExecutionResult = commandExecutor.execute(CommandLane.MUTATION, cmd);
+        if (commandExecutionResult.getExitValue() != 0 || !commandExecutionResult.getOutputLines().isEmpty()) {
+            String errMsg = String.format("Fail to remove index %d. %s",
+                    index, String.join("\n", commandExecutionResult.getOutputLines()));
+            log.error(errMsg);
+            throw new LdplayerFailureException(errMsg);
+        }
+    }
 }
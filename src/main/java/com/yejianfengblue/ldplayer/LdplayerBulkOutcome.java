@@ -0,0 +1,20 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.Value;
+
+@Value
+public class LdplayerBulkOutcome {
+
+    int index;
+
+    Status status;
+
+    String message;
+
+    public enum Status {
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT,
+        NOT_FOUND
+    }
+}
@@ -0,0 +1,289 @@
+package com.yejianfengblue.ldplayer;
+
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Launch, quit or reboot many ldplayers in one call.
+ * The ldconsole commands are issued in parallel, at most {@code ldplayer.bulk.concurrency} at a time, and then all
+ * targets are waited on together, so the whole operation takes as long as the slowest ldplayer.
+ * Launch and reboot are waited on with one {@code ldconsole list2} per poll.
+ * Quit is waited on by the exit of the processes, the same as {@link LdplayerService#quit(int)}.
+ */
+@Service
+@Slf4j
+public class LdplayerBulkService {
+
+    private static final long POLL_INTERVAL_SECONDS = 5;
+
+    private final Ldconsole ldconsole;
+
+    private final LdplayerService ldplayerService;
+
+    private final LdplayerResourceAccountant resourceAccountant;
+
+    private final ExecutorService commandIssuer;
+
+    private final long timeoutSeconds;
+
+    public LdplayerBulkService(Ldconsole ldconsole,
+                               LdplayerService ldplayerService,
+                               LdplayerResourceAccountant resourceAccountant,
+                               @Value("${ldplayer.bulk.concurrency:8}") int concurrency,
+                               @Value("${ldplayer.bulk.timeout-seconds:600}") long timeoutSeconds) {
+
+        this.ldconsole = ldconsole;
+        this.ldplayerService = ldplayerService;
+        this.resourceAccountant = resourceAccountant;
+        this.commandIssuer = Executors.newFixedThreadPool(concurrency);
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        commandIssuer.shutdownNow();
+    }
+
+    /**
+     * Launch and wait for android ready.
+     *
+     * @throws InterruptedException  underlying command execution is interrupted or interrupted when wait
+     * @throws CommandExecutionFailureException  underlying list command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying list command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    public List<LdplayerBulkOutcome> launch(LdplayerSelection selection)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        return run(selection, Action.LAUNCH, timeoutSeconds);
+    }
+
+    /**
+     * Launch and wait for android ready at most {@code timeoutSeconds},
+     * instead of {@code ldplayer.bulk.timeout-seconds}.
+     * The ones not android ready in time are {@link LdplayerBulkOutcome.Status#TIMED_OUT}, but still launching.
+     *
+     * @throws InterruptedException  underlying command execution is interrupted or interrupted when wait
+     * @throws CommandExecutionFailureException  underlying list command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying list command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    public List<LdplayerBulkOutcome> launch(LdplayerSelection selection, long timeoutSeconds)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        return run(selection, Action.LAUNCH, timeoutSeconds);
+    }
+
+    /**
+     * Quit and wait for the processes to exit.
+     * The ones which don't exit within {@code ldplayer.quit.timeout-seconds} are forcibly killed.
+     *
+     * @throws InterruptedException  underlying command execution is interrupted or interrupted when wait
+     * @throws CommandExecutionFailureException  underlying list command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying list command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    public List<LdplayerBulkOutcome> quit(LdplayerSelection selection)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        return run(selection, Action.QUIT, timeoutSeconds);
+    }
+
+    /**
+     * Reboot and wait for android ready.
+     *
+     * @throws InterruptedException  underlying command execution is interrupted or interrupted when wait
+     * @throws CommandExecutionFailureException  underlying list command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying list command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    public List<LdplayerBulkOutcome> reboot(LdplayerSelection selection)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        return run(selection, Action.REBOOT, timeoutSeconds);
+    }
+
+    private List<LdplayerBulkOutcome> run(LdplayerSelection selection, Action action, long timeoutSeconds)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        Map<Integer, LdplayerBulkOutcome> outcomes = new TreeMap<>();
+        Map<Integer, LdplayerState> states = ldconsole.list().stream()
+                .collect(Collectors.toMap(LdplayerState::getIndex, Function.identity()));
+
+        if (selection.getIndices() != null) {
+            for (Integer index : selection.getIndices()) {
+                if (!states.containsKey(index)) {
+                    outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.NOT_FOUND, "Not found"));
+                } else if (LdplayerSelection.isTemplate(states.get(index))) {
+                    outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.FAILED,
+                            "A template of the template cache can't be selected"));
+                }
+            }
+        }
+
+        List<Integer> toIssue = new ArrayList<>();
+        for (LdplayerState state : states.values()) {
+            if (selection.matches(state)) {
+                if (action.done.test(state) && action != Action.REBOOT) {
+                    outcomes.put(state.getIndex(), outcome(state.getIndex(), LdplayerBulkOutcome.Status.SUCCEEDED,
+                            "Already " + action.doneDescription));
+                } else {
+                    toIssue.add(state.getIndex());
+                }
+            }
+        }
+
+        List<Integer> reserved = List.of();
+        if (action == Action.LAUNCH && resourceAccountant.hasBudget()) {
+            reserved = resourceAccountant.reserve(toIssue);
+            for (Integer index : toIssue) {
+                if (!reserved.contains(index)) {
+                    outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.FAILED,
+                            "Refused, it would overcommit host budget"));
+                }
+            }
+            toIssue = reserved;
+        }
+
+        try {
+            issueAndWait(toIssue, action, states, outcomes, timeoutSeconds);
+        } finally {
+            reserved.forEach(resourceAccountant::release);
+        }
+
+        return new ArrayList<>(outcomes.values());
+    }
+
+    private void issueAndWait(List<Integer> toIssue, Action action, Map<Integer, LdplayerState> states,
+                              Map<Integer, LdplayerBulkOutcome> outcomes, long timeoutSeconds)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        // issue commands in parallel
+        Map<Integer, Future<?>> issued = new LinkedHashMap<>();
+        for (Integer index : toIssue) {
+            issued.put(index, commandIssuer.submit(() -> {
+                action.command.run(ldconsole, index);
+                return null;
+            }));
+        }
+
+        Set<Integer> pending = new HashSet<>();
+        for (Map.Entry<Integer, Future<?>> issuedEntry : issued.entrySet()) {
+            int index = issuedEntry.getKey();
+            try {
+                issuedEntry.getValue().get();
+                pending.add(index);
+            } catch (ExecutionException executionException) {
+                outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.FAILED,
+                        executionException.getCause().getMessage()));
+            } catch (InterruptedException interruptedException) {
+                issued.values().forEach(future -> future.cancel(true));
+                throw interruptedException;
+            }
+        }
+
+        if (action == Action.QUIT) {
+            // the pids are taken from the snapshot before quit is issued
+            Map<Integer, List<Long>> pidsByIndex = new TreeMap<>();
+            pending.forEach(index -> pidsByIndex.put(index, LdplayerService.pidsOf(states.get(index))));
+            Set<Integer> alive = ldplayerService.awaitQuit(pidsByIndex);
+            for (Integer index : pending) {
+                outcomes.put(index, alive.contains(index)
+                        ? outcome(index, LdplayerBulkOutcome.Status.FAILED, "Still alive after forcibly killed")
+                        : outcome(index, LdplayerBulkOutcome.Status.SUCCEEDED, action.doneDescription));
+            }
+            return;
+        }
+
+        // wait for all with one shared list per poll
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        if (!pending.isEmpty()) {
+            TimeUnit.SECONDS.sleep(action.initialDelaySeconds);
+        }
+        while (!pending.isEmpty()) {
+
+            Map<Integer, LdplayerState> polledStates = ldconsole.list().stream()
+                    .collect(Collectors.toMap(LdplayerState::getIndex, Function.identity()));
+            for (Integer index : new ArrayList<>(pending)) {
+                LdplayerState state = polledStates.get(index);
+                if (state == null) {
+                    pending.remove(index);
+                    outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.FAILED, "Disappeared"));
+                } else if (action.done.test(state)) {
+                    pending.remove(index);
+                    outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.SUCCEEDED,
+                            action.doneDescription));
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    for (Integer index : pending) {
+                        outcomes.put(index, outcome(index, LdplayerBulkOutcome.Status.TIMED_OUT,
+                                String.format("Not %s after %d seconds", action.doneDescription, timeoutSeconds)));
+                    }
+                    log.warn("Bulk {} timed out for indices {}", action, pending);
+                    pending.clear();
+                } else {
+                    TimeUnit.SECONDS.sleep(POLL_INTERVAL_SECONDS);
+                }
+            }
+        }
+    }
+
+    private static LdplayerBulkOutcome outcome(int index, LdplayerBulkOutcome.Status status, String message) {
+        return new LdplayerBulkOutcome(index, status, message);
+    }
+
+    private enum Action {
+
+        LAUNCH(Ldconsole::launch, LdplayerState::isAndroidReady, "android ready", 10),
+
+        // not polled, see LdplayerService#awaitQuit
+        QUIT(Ldconsole::quit, state -> !state.isRunning(), "stopped", 0),
+
+        // give android time to go down before checking android ready again
+        REBOOT(Ldconsole::reboot, LdplayerState::isAndroidReady, "android ready", 10);
+
+        private final IndexCommand command;
+
+        private final Predicate<LdplayerState> done;
+
+        private final String doneDescription;
+
+        private final long initialDelaySeconds;
+
+        Action(IndexCommand command, Predicate<LdplayerState> done, String doneDescription, long initialDelaySeconds) {
+            this.command = command;
+            this.done = done;
+            this.doneDescription = doneDescription;
+            this.initialDelaySeconds = initialDelaySeconds;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IndexCommand {
+
+        void run(Ldconsole ldconsole, int index)
+                throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException;
+    }
+}
@@ -11,8 +11,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
 import java.util.Optional;
 
+import static com.yejianfengblue.ldplayer.LdplayerIdempotencyStore.IDEMPOTENCY_KEY;
+
 @RestController
 @RequestMapping(LdplayerLinks.LDPLAYERS)
 @RequiredArgsConstructor
@@ -20,8 +23,12 @@ public class LdplayerController {
 
     private final LdplayerService ldplayerService;
 
+    private final LdplayerBulkService ldplayerBulkService;
+
     private final LdplayerModelAssembler ldplayerModelAssembler;
 
+    private final LdplayerIdempotencyStore ldplayerIdempotencyStore;
+
     @GetMapping(produces = MediaTypes.HAL_JSON_VALUE)
     ResponseEntity<CollectionModel<EntityModel<Ldplayer>>> getAll()
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
@@ -29,14 +36,19 @@ public class LdplayerController {
     }
 
     @PostMapping(produces = MediaTypes.HAL_JSON_VALUE)
-    ResponseEntity<EntityModel<Ldplayer>> create(@RequestBody LdplayerCreation ldplayerCreation)
+    ResponseEntity<EntityModel<Ldplayer>> create(
+            @RequestBody LdplayerCreation ldplayerCreation,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
-        Ldplayer ldplayer = ldplayerService.create(ldplayerCreation);
-        EntityModel<Ldplayer> ldplayerModel = ldplayerModelAssembler.toModel(ldplayer);
-        return ResponseEntity
-                .created(ldplayerModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
-                .body(ldplayerModel);
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "POST /ldplayers", ldplayerCreation, () -> {
+
+            Ldplayer ldplayer = ldplayerService.create(ldplayerCreation);
+            EntityModel<Ldplayer> ldplayerModel = ldplayerModelAssembler.toModel(ldplayer);
+            return ResponseEntity
+                    .created(ldplayerModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
+                    .body(ldplayerModel);
+        });
     }
 
     @GetMapping(path = "/{index}", produces = MediaTypes.HAL_JSON_VALUE)
@@ -49,37 +61,97 @@ public class LdplayerController {
     }
 
     @PutMapping(path = "/{index}/" + LdplayerLinks.LAUNCH, produces = MediaTypes.HAL_JSON_VALUE)
-    ResponseEntity<EntityModel<Ldplayer>> launch(@PathVariable int index)
+    ResponseEntity<EntityModel<Ldplayer>> launch(
+            @PathVariable int index,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
-        Optional<Ldplayer> ldplayer = ldplayerService.get(index);
-        if (ldplayer.isPresent()) {
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "PUT /ldplayers/" + index + "/launch", null, () -> {
 
-            ldplayerService.launchAndWaitAndroidReady(index);
-            ldplayer = ldplayerService.get(index);
-            return ResponseEntity.ok(ldplayerModelAssembler.toModel(ldplayer.get()));
-        } else {
-            return ResponseEntity.notFound().build();
-        }
+            Optional<Ldplayer> ldplayer = ldplayerService.get(index);
+            if (ldplayer.isPresent()) {
+
+                requireNotTemplate(ldplayer.get());
+                ldplayerService.launchAndWaitAndroidReady(index);
+                ldplayer = ldplayerService.get(index);
+                return ResponseEntity.ok(ldplayerModelAssembler.toModel(ldplayer.get()));
+            } else {
+                return ResponseEntity.notFound().build();
+            }
+        });
     }
 
     @PutMapping(path = "/{index}/" + LdplayerLinks.QUIT, produces = MediaTypes.HAL_JSON_VALUE)
-    ResponseEntity<EntityModel<Ldplayer>> quit(@PathVariable int index)
+    ResponseEntity<EntityModel<Ldplayer>> quit(
+            @PathVariable int index,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
             throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
 
-        Optional<Ldplayer> ldplayer = ldplayerService.get(index);
-        if (ldplayer.isPresent()) {
-            try {
-                ldplayerService.quit(index);
-                ldplayer = ldplayerService.get(index);
-                return ResponseEntity.ok(ldplayerModelAssembler.toModel(ldplayer.get()));
-
-            } catch (InterruptedException interruptedException) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Quit is interrupted");
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "PUT /ldplayers/" + index + "/quit", null, () -> {
+
+            Optional<Ldplayer> ldplayer = ldplayerService.get(index);
+            if (ldplayer.isPresent()) {
+                requireNotTemplate(ldplayer.get());
+                try {
+                    ldplayerService.quit(index);
+                    ldplayer = ldplayerService.get(index);
+                    return ResponseEntity.ok(ldplayerModelAssembler.toModel(ldplayer.get()));
+
+                } catch (InterruptedException interruptedException) {
+                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Quit is interrupted");
+                }
+            } else {
+                return ResponseEntity.notFound().build();
             }
-        } else {
-            return ResponseEntity.notFound().build();
+        });
+    }
+
+    @PutMapping(path = "/" + LdplayerLinks.LAUNCH)
+    ResponseEntity<List<LdplayerBulkOutcome>> launchAll(
+            @RequestBody LdplayerSelection selection,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        requireNotEmpty(selection);
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "PUT /ldplayers/launch", selection,
+                () -> ResponseEntity.ok(ldplayerBulkService.launch(selection)));
+    }
+
+    @PutMapping(path = "/" + LdplayerLinks.QUIT)
+    ResponseEntity<List<LdplayerBulkOutcome>> quitAll(
+            @RequestBody LdplayerSelection selection,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        requireNotEmpty(selection);
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "PUT /ldplayers/quit", selection,
+                () -> ResponseEntity.ok(ldplayerBulkService.quit(selection)));
+    }
+
+    @PutMapping(path = "/" + LdplayerLinks.REBOOT)
+    ResponseEntity<List<LdplayerBulkOutcome>> rebootAll(
+            @RequestBody LdplayerSelection selection,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        requireNotEmpty(selection);
+        return ldplayerIdempotencyStore.execute(idempotencyKey, "PUT /ldplayers/reboot", selection,
+                () -> ResponseEntity.ok(ldplayerBulkService.reboot(selection)));
+    }
+
+    /**
+     * A template is launched and quit only by the template cache, otherwise a later copy would clone a live disk
+     */
+    private static void requireNotTemplate(Ldplayer ldplayer) {
+        if (LdplayerTemplateCache.isTemplate(ldplayer.getName())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(
+                    "Index %d is a template of the template cache", ldplayer.getIndex()));
         }
     }
 
+    private static void requireNotEmpty(LdplayerSelection selection) {
+        if (selection.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either indices or namePrefix is required");
+        }
+    }
 }
@@ -18,4 +18,9 @@ public class LdplayerCreation {
     String manufacturer;
 
     String model;
+
+    /**
+     * Name of a resource profile in {@code ldplayer.resources.profiles}
+     */
+    String resourceProfile;
 }
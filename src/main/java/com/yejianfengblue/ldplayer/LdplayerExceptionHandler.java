@@ -1,6 +1,8 @@
 package com.yejianfengblue.ldplayer;
 
+import com.yejianfengblue.ldplayer.adb.AdbFailureException;
 import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import com.yejianfengblue.ldplayer.command.CommandRejectedException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -22,8 +24,18 @@ public class LdplayerExceptionHandler extends ResponseEntityExceptionHandler {
         return handleExceptionInternal(ex, ex.getMessage(), new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR, request);
     }
 
+    @ExceptionHandler(CommandRejectedException.class)
+    protected ResponseEntity<Object> handleCommandRejected(CommandRejectedException ex, WebRequest request) {
+        return handleExceptionInternal(ex, ex.getMessage(), new HttpHeaders(), HttpStatus.SERVICE_UNAVAILABLE, request);
+    }
+
     @ExceptionHandler(LdplayerFailureException.class)
     protected ResponseEntity<Object> handleLdplayerFailure(LdplayerFailureException ex, WebRequest request) {
         return handleExceptionInternal(ex, ex.getMessage(), new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR, request);
     }
+
+    @ExceptionHandler(AdbFailureException.class)
+    protected ResponseEntity<Object> handleAdbFailure(AdbFailureException ex, WebRequest request) {
+        return handleExceptionInternal(ex, ex.getMessage(), new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR, request);
+    }
 }
@@ -0,0 +1,115 @@
+package com.yejianfengblue.ldplayer;
+
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Once the application is up, warm up in background, so that the first {@code GET /ldplayers} doesn't pay for
+ * <ul>
+ *     <li>the cold reflection of {@code linkTo(methodOn(...))}</li>
+ *     <li>the cold path of the first {@code ldconsole list2}, which is run once in the probe lane,
+ *     starting its bulkhead thread and loading process spawning and output parsing.
+ *     Its result is not kept, as every request lists on its own</li>
+ * </ul>
+ * The time from JVM start until the first response is completed is logged,
+ * and so is the time the first {@code GET /ldplayers} takes.
+ *
+ * With {@code ldplayer.fast-start.exit-on-ready=true}, warm up in foreground and then exit,
+ * which is the training run of the {@code appcds} maven profile.
+ */
+@Component
+@ConditionalOnProperty(name = "ldplayer.fast-start.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+class LdplayerFastStart extends OncePerRequestFilter {
+
+    private final LdplayerModelAssembler ldplayerModelAssembler;
+
+    private final Ldconsole ldconsole;
+
+    private final ConfigurableApplicationContext applicationContext;
+
+    private final AtomicBoolean firstResponseCompleted = new AtomicBoolean(false);
+
+    private final AtomicBoolean firstInventoryCompleted = new AtomicBoolean(false);
+
+    @Value("${ldplayer.fast-start.exit-on-ready:false}")
+    private boolean exitOnReady;
+
+    @EventListener(ApplicationReadyEvent.class)
+    void onApplicationReady() {
+
+        log.info("Application ready {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+
+        if (exitOnReady) {
+            warmUp();
+            System.exit(SpringApplication.exit(applicationContext));
+        } else {
+            Thread warmUpThread = new Thread(this::warmUp, "fast-start-warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        long startNanos = System.nanoTime();
+        filterChain.doFilter(request, response);
+
+        if (!firstResponseCompleted.get() && firstResponseCompleted.compareAndSet(false, true)) {
+            log.info("First response to {} {} completed {} ms after JVM start",
+                    request.getMethod(), request.getRequestURI(), ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        if (!firstInventoryCompleted.get() && "GET".equals(request.getMethod())
+                && ("/" + LdplayerLinks.LDPLAYERS).equals(request.getServletPath())
+                && firstInventoryCompleted.compareAndSet(false, true)) {
+            log.info("First GET {} took {} ms, completed {} ms after JVM start", request.getRequestURI(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                    ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+    private void warmUp() {
+
+        long startNanos = System.nanoTime();
+
+        // both running and not running branches, independent from ldconsole
+        Ldplayer stub = new Ldplayer(0);
+        ldplayerModelAssembler.toModel(stub);
+        stub.setRunning(true);
+        ldplayerModelAssembler.toModel(stub);
+
+        log.info("Link building warmed up in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+        startNanos = System.nanoTime();
+        try {
+            int count = ldconsole.list().size();
+            log.info("ldconsole list2 warmed up in {} ms, {} ldplayers",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), count);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            log.warn("Fail to warm up ldconsole list2. {}", exception.getMessage());
+        }
+    }
+}
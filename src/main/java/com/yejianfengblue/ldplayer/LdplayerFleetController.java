@@ -0,0 +1,60 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("fleets")
+@RequiredArgsConstructor
+public class LdplayerFleetController {
+
+    private final LdplayerFleetReconciler ldplayerFleetReconciler;
+
+    private final LdplayerResourceProperties ldplayerResourceProperties;
+
+    @GetMapping
+    ResponseEntity<List<LdplayerFleetStatus>> getAll() {
+        return ResponseEntity.ok(ldplayerFleetReconciler.getAllStatuses());
+    }
+
+    @GetMapping(path = "/{name}")
+    ResponseEntity<LdplayerFleetSpec> getSpec(@PathVariable String name) {
+
+        return ldplayerFleetReconciler.getSpec(name)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @GetMapping(path = "/{name}/status")
+    ResponseEntity<LdplayerFleetStatus> getStatus(@PathVariable String name) {
+
+        return ldplayerFleetReconciler.getStatus(name)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @PutMapping(path = "/{name}")
+    ResponseEntity<LdplayerFleetSpec> apply(@PathVariable String name, @RequestBody LdplayerFleetSpec spec) {
+
+        if (spec.getRunningCount() < 0 || spec.getFromIndex() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "runningCount must not be negative and fromIndex is required");
+        }
+        ldplayerResourceProperties.requireProfile(spec.getResourceProfile());
+        ldplayerFleetReconciler.apply(name, spec);
+        return ResponseEntity.accepted().body(spec);
+    }
+
+    @DeleteMapping(path = "/{name}")
+    ResponseEntity<Void> remove(@PathVariable String name) {
+
+        return ldplayerFleetReconciler.remove(name)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+}
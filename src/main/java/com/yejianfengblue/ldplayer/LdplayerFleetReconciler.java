@@ -0,0 +1,321 @@
+package com.yejianfengblue.ldplayer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Converge fleets toward their {@link LdplayerFleetSpec} in background.
+ * Each cycle takes one {@code ldconsole list2} snapshot for all fleets, then
+ * <ul>
+ *     <li>if a fleet has too few running members, launch stopped members first,
+ *     and copy new members only if there are not enough stopped ones</li>
+ *     <li>if a fleet has too many running members, quit the ones with largest serial</li>
+ * </ul>
+ * Launches of stopped and newly copied members, and quits of a fleet are issued in one bulk operation.
+ * At most {@code ldplayer.fleet.max-changes-per-cycle} launches, quits and copies are made per cycle.
+ * <p>
+ * Fleets are reconciled one after another on a single thread, so the bulk launch of each fleet waits for android ready
+ * at most {@code ldplayer.fleet.launch-timeout-seconds}, rather than {@code ldplayer.bulk.timeout-seconds}, to bound
+ * how long the other fleets wait. Members not ready by then keep launching and are counted as running next cycle.
+ * <p>
+ * Specs are kept in {@code ldplayer.fleet.spec-file}, so that fleets are still reconciled after restart.
+ */
+@Service
+@Slf4j
+public class LdplayerFleetReconciler {
+
+    private final Ldconsole ldconsole;
+
+    private final LdplayerService ldplayerService;
+
+    private final LdplayerBulkService ldplayerBulkService;
+
+    private final ObjectMapper objectMapper;
+
+    private final long intervalSeconds;
+
+    private final int maxChangesPerCycle;
+
+    private final long launchTimeoutSeconds;
+
+    private final String specFile;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fleet-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, LdplayerFleetSpec> specs = new ConcurrentHashMap<>();
+
+    private final Map<String, LdplayerFleetStatus> statuses = new ConcurrentHashMap<>();
+
+    private final Object specFileLock = new Object();
+
+    public LdplayerFleetReconciler(Ldconsole ldconsole,
+                                   LdplayerService ldplayerService,
+                                   LdplayerBulkService ldplayerBulkService,
+                                   ObjectMapper objectMapper,
+                                   @Value("${ldplayer.fleet.reconcile-interval-seconds:30}") long intervalSeconds,
+                                   @Value("${ldplayer.fleet.max-changes-per-cycle:4}") int maxChangesPerCycle,
+                                   @Value("${ldplayer.fleet.launch-timeout-seconds:180}") long launchTimeoutSeconds,
+                                   @Value("${ldplayer.fleet.spec-file:ldplayer-fleets.json}") String specFile) {
+
+        this.ldconsole = ldconsole;
+        this.ldplayerService = ldplayerService;
+        this.ldplayerBulkService = ldplayerBulkService;
+        this.objectMapper = objectMapper;
+        this.intervalSeconds = intervalSeconds;
+        this.maxChangesPerCycle = maxChangesPerCycle;
+        this.launchTimeoutSeconds = launchTimeoutSeconds;
+        this.specFile = specFile;
+    }
+
+    @PostConstruct
+    void start() {
+        loadSpecs();
+        scheduler.scheduleWithFixedDelay(this::reconcile, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Store the spec and reconcile as soon as possible
+     */
+    public void apply(String name, LdplayerFleetSpec spec) {
+
+        specs.put(name, spec);
+        storeSpecs();
+        scheduler.execute(this::reconcile);
+    }
+
+    /**
+     * Stop managing the fleet. Its members are left as they are.
+     *
+     * @return  false if there is no such fleet
+     */
+    public boolean remove(String name) {
+
+        statuses.remove(name);
+        if (specs.remove(name) == null) {
+            return false;
+        }
+        storeSpecs();
+        return true;
+    }
+
+    public Optional<LdplayerFleetSpec> getSpec(String name) {
+        return Optional.ofNullable(specs.get(name));
+    }
+
+    /**
+     * @return  empty if the fleet has not been reconciled yet
+     */
+    public Optional<LdplayerFleetStatus> getStatus(String name) {
+        return Optional.ofNullable(statuses.get(name));
+    }
+
+    public List<LdplayerFleetStatus> getAllStatuses() {
+        return new ArrayList<>(statuses.values());
+    }
+
+    private void reconcile() {
+
+        if (specs.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<LdplayerState> states = ldconsole.list();
+            int changeBudget = maxChangesPerCycle;
+            for (Map.Entry<String, LdplayerFleetSpec> specEntry : specs.entrySet()) {
+                changeBudget -= reconcile(specEntry.getKey(), specEntry.getValue(), states, changeBudget);
+            }
+
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            log.error("Fail to list for reconciling fleets. {}", exception.getMessage());
+        } catch (RuntimeException runtimeException) {
+            // an exception would cancel the scheduled reconcile
+            log.error("Fail to reconcile fleets", runtimeException);
+        }
+    }
+
+    /**
+     * @return  number of changes made
+     */
+    private int reconcile(String name, LdplayerFleetSpec spec, List<LdplayerState> states, int changeBudget)
+            throws InterruptedException {
+
+        List<LdplayerState> members = states.stream()
+                .filter(state -> serialOf(name, state) >= 0)
+                .sorted(Comparator.comparingInt(state -> serialOf(name, state)))
+                .collect(Collectors.toList());
+        List<LdplayerState> running = members.stream()
+                .filter(LdplayerState::isRunning)
+                .collect(Collectors.toList());
+        List<LdplayerState> stopped = members.stream()
+                .filter(state -> !state.isRunning())
+                .collect(Collectors.toList());
+
+        int shortage = spec.getRunningCount() - running.size();
+        int changes = 0;
+        String error = null;
+        try {
+            if (shortage > 0) {
+
+                // reuse stopped members before copying new ones
+                Set<Integer> toLaunch = stopped.stream()
+                        .limit(Math.min(shortage, changeBudget))
+                        .map(LdplayerState::getIndex)
+                        .collect(Collectors.toCollection(HashSet::new));
+                changes += toLaunch.size();
+
+                // a new member is stopped unless its apks are installed, so it's launched with the stopped ones
+                int nextSerial = members.isEmpty() ? 0 : serialOf(name, members.get(members.size() - 1)) + 1;
+                try {
+                    while (toLaunch.size() < shortage && changes < changeBudget) {
+                        Ldplayer newMember = ldplayerService.create(new LdplayerCreation(
+                                name + "-" + nextSerial++,
+                                spec.getFromIndex(),
+                                true,
+                                spec.getInstallApkPaths(),
+                                spec.getManufacturer(),
+                                spec.getModel(),
+                                spec.getResourceProfile()));
+                        toLaunch.add(newMember.getIndex());
+                        changes++;
+                    }
+                } catch (CommandExecutionFailureException | LdplayerFailureException
+                        | ResponseStatusException exception) {
+                    // such as the resource profile of the spec is no longer configured. Still launch the ones copied
+                    error = exception.getMessage();
+                    log.error("Fail to copy a member of fleet {}. {}", name, error);
+                }
+                if (!toLaunch.isEmpty()) {
+                    logFailures(name, ldplayerBulkService.launch(new LdplayerSelection(toLaunch, null),
+                            launchTimeoutSeconds));
+                }
+
+            } else if (shortage < 0) {
+
+                // quit the latest members
+                Set<Integer> toQuit = running.stream()
+                        .sorted(Comparator.comparingInt((LdplayerState state) -> serialOf(name, state)).reversed())
+                        .limit(Math.min(-shortage, changeBudget))
+                        .map(LdplayerState::getIndex)
+                        .collect(Collectors.toSet());
+                if (!toQuit.isEmpty()) {
+                    logFailures(name, ldplayerBulkService.quit(new LdplayerSelection(toQuit, null)));
+                    changes += toQuit.size();
+                }
+            }
+
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            error = exception.getMessage();
+            log.error("Fail to reconcile fleet {}. {}", name, error);
+        }
+
+        statuses.put(name, new LdplayerFleetStatus(name, spec, running.size(), stopped.size(), Instant.now(), error));
+        if (changes > 0) {
+            log.info("Fleet {} has {} running, {} wanted, {} changes made", name, running.size(),
+                    spec.getRunningCount(), changes);
+        }
+        return changes;
+    }
+
+    private Path specFile() {
+        return StringUtils.isBlank(specFile) ? null : Paths.get(specFile);
+    }
+
+    private void loadSpecs() {
+
+        Path specFile = specFile();
+        if (specFile != null && Files.exists(specFile)) {
+            try {
+                specs.putAll(objectMapper.readValue(specFile.toFile(),
+                        new TypeReference<Map<String, LdplayerFleetSpec>>() {
+                        }));
+                log.info("Loaded specs of {} fleets from {}", specs.size(), specFile);
+            } catch (IOException ioException) {
+                log.warn("Fail to load fleet specs from {}. {}", specFile, ioException.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write to a temporary file and then move, so that a crash doesn't leave a partial file
+     */
+    private void storeSpecs() {
+
+        Path specFile = specFile();
+        if (specFile == null) {
+            return;
+        }
+        synchronized (specFileLock) {
+            Path temporaryFile = specFile.resolveSibling(specFile.getFileName() + ".tmp");
+            try {
+                objectMapper.writeValue(temporaryFile.toFile(), new TreeMap<>(specs));
+                Files.move(temporaryFile, specFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ioException) {
+                log.warn("Fail to store fleet specs to {}. {}", specFile, ioException.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return  serial of the member, or -1 if not a member of the fleet
+     */
+    private static int serialOf(String name, LdplayerState state) {
+
+        String title = state.getTitle();
+        String prefix = name + "-";
+        if (title.length() > prefix.length() && title.startsWith(prefix)) {
+            String serial = title.substring(prefix.length());
+            if (serial.length() < 10 && serial.chars().allMatch(Character::isDigit)) {
+                return Integer.parseInt(serial);
+            }
+        }
+        return -1;
+    }
+
+    private static void logFailures(String name, List<LdplayerBulkOutcome> outcomes) {
+
+        outcomes.stream()
+                .filter(outcome -> outcome.getStatus() != LdplayerBulkOutcome.Status.SUCCEEDED)
+                .forEach(outcome -> log.warn("Fleet {} index {} {}. {}",
+                        name, outcome.getIndex(), outcome.getStatus(), outcome.getMessage()));
+    }
+}
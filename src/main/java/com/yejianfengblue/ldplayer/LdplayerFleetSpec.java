@@ -0,0 +1,25 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Desired state of a fleet, whose members are the ldplayers named {@code <fleet name>-<serial>}.
+ * Manufacturer, model, resource profile and apks apply to newly copied members only.
+ */
+@Value
+public class LdplayerFleetSpec {
+
+    int runningCount;
+
+    Integer fromIndex;
+
+    List<String> installApkPaths;
+
+    String manufacturer;
+
+    String model;
+
+    String resourceProfile;
+}
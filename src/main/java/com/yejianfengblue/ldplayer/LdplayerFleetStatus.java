@@ -0,0 +1,27 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * Observed state of a fleet at the start of the last reconcile cycle
+ */
+@Value
+public class LdplayerFleetStatus {
+
+    String name;
+
+    LdplayerFleetSpec spec;
+
+    int running;
+
+    int stopped;
+
+    Instant reconciledAt;
+
+    /**
+     * {@code null} if the last reconcile cycle succeeded
+     */
+    String error;
+}
@@ -0,0 +1,174 @@
+package com.yejianfengblue.ldplayer;
+
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of mutating requests by {@code Idempotency-Key}, so that a retried request attaches to the in-flight or
+ * completed result instead of repeating an expensive operation, such as copying a whole disk image.
+ * Keys are scoped by operation, and bound to the request they are first used with. Reusing a key with a different
+ * request is rejected with 422. Failed results are not kept, so that the request can be retried.
+ * Completed results expire after {@code ldplayer.idempotency.ttl-seconds}, and the oldest completed results are
+ * evicted when there are more than {@code ldplayer.idempotency.max-entries}.
+ */
+@Component
+@Slf4j
+class LdplayerIdempotencyStore {
+
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    LdplayerIdempotencyStore(@Value("${ldplayer.idempotency.ttl-seconds:3600}") long ttlSeconds,
+                             @Value("${ldplayer.idempotency.max-entries:1000}") int maxEntries) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Run the call, or attach to the result of the call with the same key and operation.
+     * A replayed response has header {@code Idempotent-Replayed: true}.
+     *
+     * @param key  if {@code null}, simply run the call
+     * @param request  the request body, compared by {@code equals}, or {@code null} if no body
+     * @throws ResponseStatusException  422, if the key is used with a different request
+     * @throws InterruptedException  the call is interrupted, or interrupted when wait for the in-flight call
+     * @throws CommandExecutionFailureException  the call fails
+     * @throws LdplayerFailureException  the call fails
+     */
+    <T> ResponseEntity<T> execute(String key, String operation, Object request, IdempotentCall<T> call)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        if (key == null) {
+            return call.call();
+        }
+
+        String scopedKey = operation + " " + key;
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            evict();
+            entry = entries.get(scopedKey);
+            if (entry == null) {
+                entry = new Entry(request);
+                entries.put(scopedKey, entry);
+                owner = true;
+            }
+        }
+
+        if (!Objects.equals(entry.request, request)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, String.format(
+                    "Idempotency key %s is already used with a different request to '%s'", key, operation));
+        }
+
+        if (owner) {
+            try {
+                ResponseEntity<T> response = call.call();
+                entry.complete(response);
+                return response;
+            } catch (Throwable throwable) {
+                // including errors, otherwise waiters would block forever on an entry which never completes
+                synchronized (entries) {
+                    entries.remove(scopedKey);
+                }
+                entry.result.completeExceptionally(throwable);
+                throw throwable;
+            }
+        } else {
+            log.info("Attach to result of '{}' with idempotency key {}", operation, key);
+            return replay(entry);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ResponseEntity<T> replay(Entry entry)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        ResponseEntity<?> response;
+        try {
+            response = entry.result.get();
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedException(cause.getMessage());
+            } else if (cause instanceof CommandExecutionFailureException) {
+                throw (CommandExecutionFailureException) cause;
+            } else if (cause instanceof LdplayerFailureException) {
+                throw (LdplayerFailureException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw (RuntimeException) cause;
+            }
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(response.getHeaders());
+        headers.set(IDEMPOTENT_REPLAYED, "true");
+        return new ResponseEntity<>((T) response.getBody(), headers, response.getStatusCode());
+    }
+
+    /**
+     * Must hold the lock of entries
+     */
+    private void evict() {
+
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isExpired(now, ttlNanos));
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            if (iterator.next().result.isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Object request;
+
+        private final CompletableFuture<ResponseEntity<?>> result = new CompletableFuture<>();
+
+        private volatile long completedNanos;
+
+        private Entry(Object request) {
+            this.request = request;
+        }
+
+        void complete(ResponseEntity<?> response) {
+            completedNanos = System.nanoTime();
+            result.complete(response);
+        }
+
+        boolean isExpired(long now, long ttlNanos) {
+            return result.isDone() && now - completedNanos > ttlNanos;
+        }
+    }
+
+    @FunctionalInterface
+    interface IdempotentCall<T> {
+
+        ResponseEntity<T> call() throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException;
+    }
+}
@@ -7,6 +7,11 @@ import org.springframework.hateoas.LinkRelation;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 
+/**
+ * Links are expanded from path templates matching the request mappings of {@link LdplayerController}, against
+ * {@link #ldplayerHrefPrefix()} which is resolved once per response. So one {@code methodOn} invocation proxy is
+ * created and one request mapping is resolved per response, rather than per link.
+ */
 public class LdplayerLinks {
 
     public static final String LDPLAYERS = "ldplayers";
@@ -17,6 +22,8 @@ public class LdplayerLinks {
 
     static final String QUIT = "quit";
 
+    static final String REBOOT = "reboot";
+
     public static final LinkRelation LDPLAYERS_REL = LinkRelation.of(LDPLAYERS);
 
     static final LinkRelation LDPLAYER_REL = LinkRelation.of(LDPLAYER);
@@ -25,17 +32,40 @@ public class LdplayerLinks {
 
     static final LinkRelation QUIT_REL = LinkRelation.of(QUIT);
 
+    private static final String LAUNCH_PATH_SUFFIX = "/" + LAUNCH;
+
+    private static final String QUIT_PATH_SUFFIX = "/" + QUIT;
+
+    /**
+     * Resolved by {@code linkTo} exactly the same as a self link, so that the expanded links are identical to
+     * {@code linkTo} ones, including how the base URI of current request is joined with the request mapping.
+     *
+     * @return  self link href of ldplayer 0 without the trailing index
+     */
     @SneakyThrows
-    static Link launchLink(Ldplayer ldplayer) {
+    static String ldplayerHrefPrefix() {
 
-        return linkTo(methodOn(LdplayerController.class).launch(ldplayer.getIndex()))
-                .withRel(LAUNCH_REL);
+        String sampleHref = linkTo(methodOn(LdplayerController.class).getOne(0)).withSelfRel().getHref();
+        return sampleHref.substring(0, sampleHref.length() - 1);
     }
 
-    @SneakyThrows
-    static Link stopLink(Ldplayer ldplayer) {
+    static Link selfLink(String ldplayerHrefPrefix, Ldplayer ldplayer) {
+
+        return Link.of(ldplayerHref(ldplayerHrefPrefix, ldplayer));
+    }
+
+    static Link launchLink(String ldplayerHrefPrefix, Ldplayer ldplayer) {
+
+        return Link.of(ldplayerHref(ldplayerHrefPrefix, ldplayer) + LAUNCH_PATH_SUFFIX, LAUNCH_REL);
+    }
+
+    static Link stopLink(String ldplayerHrefPrefix, Ldplayer ldplayer) {
+
+        return Link.of(ldplayerHref(ldplayerHrefPrefix, ldplayer) + QUIT_PATH_SUFFIX, QUIT_REL);
+    }
+
+    private static String ldplayerHref(String ldplayerHrefPrefix, Ldplayer ldplayer) {
 
-        return linkTo(methodOn(LdplayerController.class).quit(ldplayer.getIndex()))
-                .withRel(QUIT_REL);
+        return ldplayerHrefPrefix + ldplayer.getIndex();
     }
 }
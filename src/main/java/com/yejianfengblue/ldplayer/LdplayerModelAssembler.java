@@ -1,27 +1,44 @@
 package com.yejianfengblue.ldplayer;
 
-import lombok.SneakyThrows;
+import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.server.RepresentationModelAssembler;
 import org.springframework.stereotype.Component;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 class LdplayerModelAssembler implements RepresentationModelAssembler<Ldplayer, EntityModel<Ldplayer>> {
 
-    @SneakyThrows
     @Override
     public EntityModel<Ldplayer> toModel(Ldplayer ldplayer) {
 
-        EntityModel<Ldplayer> model = EntityModel.of(ldplayer,
-                linkTo(methodOn(LdplayerController.class).getOne(ldplayer.getIndex())).withSelfRel());
+        return toModel(ldplayer, LdplayerLinks.ldplayerHrefPrefix());
+    }
+
+    /**
+     * Resolve href prefix once for all entities
+     */
+    @Override
+    public CollectionModel<EntityModel<Ldplayer>> toCollectionModel(Iterable<? extends Ldplayer> ldplayers) {
+
+        String ldplayerHrefPrefix = LdplayerLinks.ldplayerHrefPrefix();
+        List<EntityModel<Ldplayer>> models = new ArrayList<>();
+        for (Ldplayer ldplayer : ldplayers) {
+            models.add(toModel(ldplayer, ldplayerHrefPrefix));
+        }
+        return CollectionModel.of(models);
+    }
+
+    private EntityModel<Ldplayer> toModel(Ldplayer ldplayer, String ldplayerHrefPrefix) {
+
+        EntityModel<Ldplayer> model = EntityModel.of(ldplayer, LdplayerLinks.selfLink(ldplayerHrefPrefix, ldplayer));
 
         if (ldplayer.isRunning()) {
-            model.add(LdplayerLinks.stopLink(ldplayer));
+            model.add(LdplayerLinks.stopLink(ldplayerHrefPrefix, ldplayer));
         } else {
-            model.add(LdplayerLinks.launchLink(ldplayer));
+            model.add(LdplayerLinks.launchLink(ldplayerHrefPrefix, ldplayer));
         }
 
         return model;
@@ -0,0 +1,217 @@
+package com.yejianfengblue.ldplayer;
+
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Account CPU and memory of running ldplayers against the host budget,
+ * by the resource profile each ldplayer is created with.
+ * <p>
+ * Admission and reservation are atomic. An admitted ldplayer is reserved until its launch attempt ends,
+ * so that concurrent launches which haven't shown up as running in {@code ldconsole list2} yet are accounted too.
+ * The profile of each ldplayer is kept in {@code ldplayer.resources.assignment-file}.
+ * Because {@code ldconsole copy} reuses the indices of removed ldplayers, entries of indices which no longer exist
+ * are dropped on load.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+class LdplayerResourceAccountant {
+
+    private final LdplayerResourceProperties properties;
+
+    private final Ldconsole ldconsole;
+
+    private final Map<Integer, String> profileNameByIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Number of launch attempts by index, admitted but not ended yet
+     */
+    private final Map<Integer, Integer> reservations = new HashMap<>();
+
+    private final Object assignmentFileLock = new Object();
+
+    @PostConstruct
+    void loadAssignments() throws InterruptedException {
+
+        Path assignmentFile = assignmentFile();
+        if (assignmentFile != null && Files.exists(assignmentFile)) {
+            Properties assignments = new Properties();
+            try (Reader reader = Files.newBufferedReader(assignmentFile, UTF_8)) {
+                assignments.load(reader);
+                assignments.forEach((index, profileName) ->
+                        profileNameByIndex.put(Integer.parseInt((String) index), (String) profileName));
+                log.info("Loaded resource profiles of {} ldplayers from {}", profileNameByIndex.size(), assignmentFile);
+            } catch (IOException | NumberFormatException exception) {
+                log.warn("Fail to load resource profiles from {}. {}", assignmentFile, exception.getMessage());
+            }
+            dropRemoved();
+        }
+    }
+
+    /**
+     * Drop the entries of ldplayers removed while this application wasn't running,
+     * otherwise a new ldplayer copied to the same index would be accounted by the profile of the removed one
+     */
+    private void dropRemoved() throws InterruptedException {
+
+        Set<Integer> existingIndices;
+        try {
+            existingIndices = ldconsole.list().stream().map(LdplayerState::getIndex).collect(Collectors.toSet());
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            log.warn("Fail to list ldplayers, keep all loaded resource profiles. {}", exception.getMessage());
+            return;
+        }
+        if (profileNameByIndex.keySet().retainAll(existingIndices)) {
+            log.info("Dropped resource profiles of removed ldplayers, {} left", profileNameByIndex.size());
+            storeAssignments();
+        }
+    }
+
+    void assign(int index, String profileName) {
+        profileNameByIndex.put(index, profileName);
+        storeAssignments();
+    }
+
+    void unassign(int index) {
+        if (profileNameByIndex.remove(index) != null) {
+            storeAssignments();
+        }
+    }
+
+    boolean hasBudget() {
+        return properties.getCpuBudget() > 0 || properties.getMemoryBudgetMb() > 0;
+    }
+
+    /**
+     * Admit in order, skip the ones which would overcommit the budget, and reserve the admitted ones.
+     * Each admitted index must be released when its launch attempt ends, whether succeeds or fails.
+     *
+     * @return  indices which can be launched together without overcommitting the budget
+     * @throws InterruptedException             list command execution is interrupted
+     * @throws CommandExecutionFailureException list command execution failed due to output reading failure
+     * @throws LdplayerFailureException         list command is executed but considered as failure
+     */
+    synchronized List<Integer> reserve(List<Integer> toLaunch)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        // listed within the lock, so that a launch released before is already seen as running
+        List<LdplayerState> states = ldconsole.list();
+
+        int committedCpu = 0;
+        int committedMemoryMb = 0;
+        for (LdplayerState state : states) {
+            if (state.isRunning() || reservations.containsKey(state.getIndex())) {
+                LdplayerResourceProfile profile = profileOf(state.getIndex());
+                committedCpu += cpuOf(profile);
+                committedMemoryMb += memoryMbOf(profile);
+            }
+        }
+
+        List<Integer> admitted = new ArrayList<>();
+        for (Integer index : toLaunch) {
+            boolean committed = reservations.containsKey(index)
+                    || states.stream().anyMatch(state -> state.getIndex() == index && state.isRunning());
+            LdplayerResourceProfile profile = profileOf(index);
+            int cpu = committedCpu + (committed ? 0 : cpuOf(profile));
+            int memoryMb = committedMemoryMb + (committed ? 0 : memoryMbOf(profile));
+            if ((properties.getCpuBudget() <= 0 || cpu <= properties.getCpuBudget())
+                    && (properties.getMemoryBudgetMb() <= 0 || memoryMb <= properties.getMemoryBudgetMb())) {
+                admitted.add(index);
+                reservations.merge(index, 1, Integer::sum);
+                committedCpu = cpu;
+                committedMemoryMb = memoryMb;
+            } else {
+                log.warn("Launching index {} would overcommit host budget of {} cpu and {} MB memory",
+                        index, properties.getCpuBudget(), properties.getMemoryBudgetMb());
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Reserve one, which must be released when its launch attempt ends, whether succeeds or fails.
+     *
+     * @throws InterruptedException             list command execution is interrupted
+     * @throws CommandExecutionFailureException list command execution failed due to output reading failure
+     * @throws LdplayerFailureException         if launching the ldplayer would overcommit the budget,
+     *                                          or list command is executed but considered as failure
+     */
+    void reserve(int index) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        if (reserve(List.of(index)).isEmpty()) {
+            throw new LdplayerFailureException(String.format(
+                    "Refuse to launch index %d. It would overcommit host budget of %d cpu and %d MB memory",
+                    index, properties.getCpuBudget(), properties.getMemoryBudgetMb()));
+        }
+    }
+
+    synchronized void release(int index) {
+        reservations.computeIfPresent(index, (i, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private LdplayerResourceProfile profileOf(int index) {
+
+        String profileName = profileNameByIndex.getOrDefault(index, properties.getDefaultProfile());
+        return profileName == null ? null : properties.getProfiles().get(profileName);
+    }
+
+    private static int cpuOf(LdplayerResourceProfile profile) {
+        return profile == null || profile.getCpu() == null ? 0 : profile.getCpu();
+    }
+
+    private static int memoryMbOf(LdplayerResourceProfile profile) {
+        return profile == null || profile.getMemoryMb() == null ? 0 : profile.getMemoryMb();
+    }
+
+    private Path assignmentFile() {
+        return StringUtils.isBlank(properties.getAssignmentFile()) ? null : Paths.get(properties.getAssignmentFile());
+    }
+
+    /**
+     * Write to a temporary file and then move, so that a crash doesn't leave a partial file
+     */
+    private void storeAssignments() {
+
+        Path assignmentFile = assignmentFile();
+        if (assignmentFile == null) {
+            return;
+        }
+        synchronized (assignmentFileLock) {
+            Properties assignments = new Properties();
+            profileNameByIndex.forEach((index, profileName) ->
+                    assignments.setProperty(index.toString(), profileName));
+            Path temporaryFile = assignmentFile.resolveSibling(assignmentFile.getFileName() + ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(temporaryFile, UTF_8)) {
+                    assignments.store(writer, "Resource profile by ldplayer index");
+                }
+                Files.move(temporaryFile, assignmentFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ioException) {
+                log.warn("Fail to store resource profiles to {}. {}", assignmentFile, ioException.getMessage());
+            }
+        }
+    }
+}
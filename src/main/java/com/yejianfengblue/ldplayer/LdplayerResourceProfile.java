@@ -0,0 +1,24 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * CPU, memory and resolution applied to a ldplayer by {@code ldconsole modify}.
+ * Fields not set are left as copied from the template.
+ */
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class LdplayerResourceProfile {
+
+    Integer cpu;
+
+    Integer memoryMb;
+
+    Integer width;
+
+    Integer height;
+
+    Integer dpi;
+}
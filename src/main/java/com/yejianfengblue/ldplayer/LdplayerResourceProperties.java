@@ -0,0 +1,56 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named resource profiles, and the CPU and memory budget of this host for running ldplayers.
+ * A budget of 0 means unlimited.
+ */
+@Component
+@ConfigurationProperties("ldplayer.resources")
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class LdplayerResourceProperties {
+
+    Map<String, LdplayerResourceProfile> profiles = new HashMap<>();
+
+    /**
+     * Profile accounted for the ldplayers which are not created with a profile by this application
+     */
+    String defaultProfile;
+
+    int cpuBudget;
+
+    int memoryBudgetMb;
+
+    /**
+     * Where the resource profile of each ldplayer is kept, so that it's accounted the same after restart.
+     * Blank means memory only.
+     */
+    String assignmentFile = "ldplayer-profiles.properties";
+
+    /**
+     * @return  the profile of the name, or {@code null} if the name is {@code null}
+     * @throws ResponseStatusException  400, if there is no profile of the name
+     */
+    public LdplayerResourceProfile requireProfile(String profileName) {
+
+        if (profileName == null) {
+            return null;
+        }
+        LdplayerResourceProfile profile = profiles.get(profileName);
+        if (profile == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown resource profile " + profileName);
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,30 @@
+package com.yejianfengblue.ldplayer;
+
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * Select ldplayers by index, by name prefix, or both. An empty name prefix selects all.
+ * Templates of {@link LdplayerTemplateCache} are never selected.
+ */
+@Value
+public class LdplayerSelection {
+
+    Set<Integer> indices;
+
+    String namePrefix;
+
+    boolean isEmpty() {
+        return (indices == null || indices.isEmpty()) && namePrefix == null;
+    }
+
+    boolean matches(LdplayerState state) {
+        return !isTemplate(state) && ((indices != null && indices.contains(state.getIndex()))
+                || (namePrefix != null && state.getTitle().startsWith(namePrefix)));
+    }
+
+    static boolean isTemplate(LdplayerState state) {
+        return LdplayerTemplateCache.isTemplate(state.getTitle());
+    }
+}
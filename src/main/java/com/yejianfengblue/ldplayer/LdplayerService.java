@@ -1,16 +1,24 @@
 package com.yejianfengblue.ldplayer;
 
+import com.yejianfengblue.ldplayer.adb.AdbClient;
+import com.yejianfengblue.ldplayer.adb.AdbFailureException;
 import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import com.yejianfengblue.ldplayer.command.ProcessTree;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -18,49 +26,145 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class LdplayerService {
 
+    private static final long KILL_TIMEOUT_SECONDS = 10;
+
     private final Ldconsole ldconsole;
 
+    private final LdplayerResourceAccountant resourceAccountant;
+
+    private final LdplayerResourceProperties resourceProperties;
+
+    private final AdbClient adbClient;
+
+    private final LdplayerTemplateCache templateCache;
+
+    @Value("${ldplayer.quit.timeout-seconds:60}")
+    private long quitTimeoutSeconds;
+
     /**
      * Create a ldplayer by copying from the one with given index.
-     * Modify manufacturer and model, install apks, install certificate, set global http proxy, reboot on demand.
+     * Modify manufacturer, model and resource profile, install apks, install certificate, set global http proxy, reboot on demand.
+     * If {@code ldplayer.template-cache.enabled}, copy from a pre-baked template of the same spec instead,
+     * which is baked on the first creation of the spec, see {@link LdplayerTemplateCache}.
      *
      * @throws InterruptedException  underlying command is interrupted
      *                               or interrupted when wait for android ready after reboot
      * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
      * @throws LdplayerFailureException         underlying command is executed but considered as failure
      *                                          according to exit value or output
+     * @throws org.springframework.web.server.ResponseStatusException  400, if the resource profile is unknown
      */
     public Ldplayer create(LdplayerCreation ldplayerCreation)
             throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
 
+        String resourceProfileName = ldplayerCreation.getResourceProfile();
+        LdplayerResourceProfile resourceProfile = resourceProperties.requireProfile(resourceProfileName);
+
+        List<String> installApkPaths = Optional.ofNullable(ldplayerCreation.getInstallApkPaths()).orElse(List.of());
+        boolean configured = (StringUtils.isNotBlank(ldplayerCreation.getManufacturer())
+                && StringUtils.isNotBlank(ldplayerCreation.getModel()))
+                || resourceProfile != null
+                || !installApkPaths.isEmpty();
+
+        if (templateCache.isEnabled() && configured) {
+
+            LdplayerTemplateCache.Spec spec = templateCache.spec(ldplayerCreation, resourceProfile);
+            LdplayerResourceProfile templateResourceProfile = resourceProfile;
+            // if baking fails, the half-baked template is removed by a later eviction
+            int templateIndex = templateCache.acquire(spec, title -> {
+                int index = ldconsole.copy(title, ldplayerCreation.getFromIndex());
+                configure(index, ldplayerCreation, templateResourceProfile);
+                if (ldconsole.isRunning(index)) {
+                    quit(index);
+                }
+                return index;
+            }, this::quit);
+            int newLdplayerIndex;
+            try {
+                newLdplayerIndex = ldconsole.copy(ldplayerCreation.getName(), templateIndex);
+            } finally {
+                templateCache.release(spec);
+            }
+            assignResourceProfile(newLdplayerIndex, resourceProfileName);
+            templateCache.evict(this::quit);
+
+            Ldplayer newLdplayer = new Ldplayer(newLdplayerIndex);
+            newLdplayer.setName(ldplayerCreation.getName());
+            // a copy is stopped, but would have been left running by apk installation
+            if (ldplayerCreation.isRunAfterCreate() && !installApkPaths.isEmpty()) {
+                launchAndWaitAndroidReady(newLdplayerIndex);
+            }
+            return newLdplayer;
+        }
+
         int newLdplayerIndex = ldconsole.copy(ldplayerCreation.getName(), ldplayerCreation.getFromIndex());
+        if (resourceProfile == null) {
+            assignResourceProfile(newLdplayerIndex, null);
+        }
 
         Ldplayer newLdplayer = new Ldplayer(newLdplayerIndex);
         newLdplayer.setName(ldplayerCreation.getName());
 
-        // manufacturer and model
+        configure(newLdplayerIndex, ldplayerCreation, resourceProfile);
+
+        // run or quit ?
+        if (!ldplayerCreation.isRunAfterCreate()) {
+            ldconsole.quit(newLdplayerIndex);
+        }
+
+        return newLdplayer;
+    }
+
+    /**
+     * Modify manufacturer, model and resource profile in one modify, then install apks
+     */
+    private void configure(int index, LdplayerCreation ldplayerCreation, LdplayerResourceProfile resourceProfile)
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+
+        Ldconsole.Modify.ModifyBuilder modifyBuilder = ldconsole.modify(index);
+        boolean modified = false;
         if (StringUtils.isNotBlank(ldplayerCreation.getManufacturer())
                 && StringUtils.isNotBlank(ldplayerCreation.getModel())) {
-            ldconsole.modify(newLdplayerIndex)
+            modifyBuilder
                     .manufacturer(ldplayerCreation.getManufacturer())
-                    .model(ldplayerCreation.getModel())
-                    .build()
-                    .run();
+                    .model(ldplayerCreation.getModel());
+            modified = true;
+        }
+        if (resourceProfile != null) {
+            modifyBuilder
+                    .cpu(resourceProfile.getCpu())
+                    .memoryMb(resourceProfile.getMemoryMb())
+                    .width(resourceProfile.getWidth())
+                    .height(resourceProfile.getHeight())
+                    .dpi(resourceProfile.getDpi());
+            modified = true;
+        }
+        if (modified) {
+            modifyBuilder.build().run();
+        }
+        // only after modified, so that a failed modify doesn't leave an assignment
+        if (resourceProfile != null) {
+            assignResourceProfile(index, ldplayerCreation.getResourceProfile());
         }
 
         // apk
         if (ldplayerCreation.getInstallApkPaths() != null) {
             for (String apk : ldplayerCreation.getInstallApkPaths()) {
-                installApk(newLdplayerIndex, apk);
+                installApk(index, apk);
             }
         }
+    }
 
-        // run or quit ?
-        if (!ldplayerCreation.isRunAfterCreate()) {
-            ldconsole.quit(newLdplayerIndex);
-        }
+    /**
+     * Assign the profile, or clear the one left by a removed ldplayer, as {@code ldconsole copy} reuses freed indices
+     */
+    private void assignResourceProfile(int index, String resourceProfileName) {
 
-        return newLdplayer;
+        if (resourceProfileName != null) {
+            resourceAccountant.assign(index, resourceProfileName);
+        } else {
+            resourceAccountant.unassign(index);
+        }
     }
 
     /**
@@ -79,7 +183,7 @@ public class LdplayerService {
                         new Ldplayer(
                                 state.getTitle(),
                                 state.getIndex(),
-                                ldconsole.isRunning(index),
+                                state.isRunning(),
                                 state.isAndroidReady()));
             }
         }
@@ -98,12 +202,13 @@ public class LdplayerService {
 
         List<Ldplayer> ldplayers = new ArrayList<>();
 
+        // running by the pid of list2, rather than an ldconsole isrunning per ldplayer
         for (LdplayerState state : ldconsole.list()) {
             ldplayers.add(
                     new Ldplayer(
                             state.getTitle(),
                             state.getIndex(),
-                            ldconsole.isRunning(state.getIndex()),
+                            state.isRunning(),
                             state.isAndroidReady()));
         }
 
@@ -138,7 +243,7 @@ public class LdplayerService {
     public void installApk(int index, String apkPath)
             throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
 
-        if (ldconsole.isRunning(index)) {
+        if (!ldconsole.isRunning(index)) {
             launchAndWaitAndroidReady(index);
         }
 
@@ -150,12 +255,7 @@ public class LdplayerService {
     }
 
     /**
-     * @deprecated  Because one adbd in one emulator can accept one connection at most, and emulator startup
-     * automatically starts adb server and emulator is auto connected, which prevent remote PC from connecting to the
-     * emulator. Currently at a workaround, the adb.exe is deleted from emulator installation directory, which also
-     * make it impossible to run adb command.
-     *
-     * Install certificate to Android by pushing to {@code /system/etc/security/cacerts/} and chmod all read permission.
+     * Install certificate to Android by pushing to {@code /system/etc/security/cacerts/} with all read permission.
      * If the ldplayer is not running, launch it first.
      *
      * @throws InterruptedException  underlying command is interrupted
@@ -163,12 +263,13 @@ public class LdplayerService {
      * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
      * @throws LdplayerFailureException  underlying command is executed but considered as failure
      *                                   according to exit value or output
+     * @throws AdbFailureException  fail to push or chmod over adb
      */
-    @Deprecated
     public void installCert(int index, String certPathStr)
-            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException,
+            AdbFailureException {
 
-        if (ldconsole.isRunning(index)) {
+        if (!ldconsole.isRunning(index)) {
             launchAndWaitAndroidReady(index);
         }
 
@@ -176,51 +277,133 @@ public class LdplayerService {
             TimeUnit.SECONDS.sleep(10);
         }
 
-        Path certFilenamePath = Paths.get(certPathStr).getFileName();
-        Path remoteCertPath = Paths.get("/system/etc/security/cacerts/").resolve(certFilenamePath);
-        String remoteCertPathStr = remoteCertPath.toString();
-        ldconsole.push(index, certPathStr, remoteCertPathStr);
-        ldconsole.adb(index, "shell chmod 644 " + remoteCertPathStr);
+        Path certPath = Paths.get(certPathStr);
+        // android path, not to be resolved by the path separator of this host
+        String remoteCertPathStr = "/system/etc/security/cacerts/" + certPath.getFileName();
+        adbClient.push(index, certPath, remoteCertPathStr, 0644);
+        String chmodOutput = adbClient.shell(index, "chmod 644 " + remoteCertPathStr).trim();
+        if (!chmodOutput.isEmpty()) {
+            String errMsg = String.format("Fail to chmod %s for index %d. %s", remoteCertPathStr, index, chmodOutput);
+            log.error(errMsg);
+            throw new LdplayerFailureException(errMsg);
+        }
     }
 
     /**
+     * If a host budget is configured, refuse to launch if it would be overcommitted,
+     * otherwise reserve the budget until android is ready or the launch fails.
      *
      * @throws InterruptedException  underlying command is interrupted
      *                               or interrupted when wait for android ready after launch
      * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
      * @throws LdplayerFailureException  underlying command is executed but considered as failure
-     *                                   according to exit value or output
+     *                                   according to exit value or output,
+     *                                   or launch would overcommit the host budget
      */
     public void launchAndWaitAndroidReady(int index)
             throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
 
-        ldconsole.launch(index);
-        do {
-            TimeUnit.SECONDS.sleep(10);
-        } while (!isAndroidReady(index));
+        boolean reserved = resourceAccountant.hasBudget();
+        if (reserved) {
+            resourceAccountant.reserve(index);
+        }
+        try {
+            ldconsole.launch(index);
+            do {
+                TimeUnit.SECONDS.sleep(10);
+            } while (!isAndroidReady(index));
 
-        TimeUnit.SECONDS.sleep(10);
+            TimeUnit.SECONDS.sleep(10);
+        } finally {
+            if (reserved) {
+                resourceAccountant.release(index);
+            }
+        }
     }
 
     /**
+     * Quit and wait for the emulator process and vbox process to exit.
+     * If they don't exit within {@code ldplayer.quit.timeout-seconds}, forcibly kill their process trees.
      *
      * @throws InterruptedException  underlying command is interrupted
      *                               or interrupted when wait for quit
      * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
      * @throws LdplayerFailureException  underlying command is executed but considered as failure
-     *                                   according to exit value or output
+     *                                   according to exit value or output,
+     *                                   or processes are still alive after forcibly killed
      */
     public void quit(int index)
             throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
 
+        List<Long> pids = ldconsole.list().stream()
+                .filter(state -> state.getIndex() == index)
+                .findFirst()
+                .map(LdplayerService::pidsOf)
+                .orElse(List.of());
+
         ldconsole.quit(index);
-        do {
-            TimeUnit.SECONDS.sleep(5);
-        } while (ldconsole.isRunning(index));
+
+        if (!awaitQuit(Map.of(index, pids)).isEmpty()) {
+            String errMsg = String.format("Fail to quit index %d. Pids %s are still alive after forcibly killed",
+                    index, pids);
+            log.error(errMsg);
+            throw new LdplayerFailureException(errMsg);
+        }
     }
 
     /**
-     * Set global http proxy.
+     * Wait for the emulator process and vbox process of each index to exit, after quit is issued.
+     * The ones which don't exit within {@code ldplayer.quit.timeout-seconds} are forcibly killed with their process
+     * trees. All indices share the same deadline, so this takes as long as the slowest one.
+     *
+     * @param pidsByIndex  see {@link #pidsOf(LdplayerState)}
+     * @return  indices whose processes are still alive after forcibly killed
+     * @throws InterruptedException  interrupted when wait for exit
+     */
+    Set<Integer> awaitQuit(Map<Integer, List<Long>> pidsByIndex) throws InterruptedException {
+
+        Set<Integer> alive = new TreeSet<>();
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(quitTimeoutSeconds);
+        for (Map.Entry<Integer, List<Long>> pidsEntry : pidsByIndex.entrySet()) {
+            if (!ProcessTree.awaitExit(pidsEntry.getValue(), remainingNanos(deadlineNanos), TimeUnit.NANOSECONDS)) {
+                alive.add(pidsEntry.getKey());
+            }
+        }
+
+        if (!alive.isEmpty()) {
+            for (Integer index : alive) {
+                log.warn("Index {} doesn't quit within {} seconds, forcibly kill pids {}",
+                        index, quitTimeoutSeconds, pidsByIndex.get(index));
+                pidsByIndex.get(index).forEach(ProcessTree::destroyForcibly);
+            }
+            long killDeadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(KILL_TIMEOUT_SECONDS);
+            for (Integer index : new ArrayList<>(alive)) {
+                if (ProcessTree.awaitExit(pidsByIndex.get(index), remainingNanos(killDeadlineNanos),
+                        TimeUnit.NANOSECONDS)) {
+                    alive.remove(index);
+                }
+            }
+        }
+
+        pidsByIndex.keySet().stream()
+                .filter(index -> !alive.contains(index))
+                .forEach(adbClient::disconnect);
+        return alive;
+    }
+
+    /**
+     * @return  pid of the emulator process and the vbox process, which are not positive if not running
+     */
+    static List<Long> pidsOf(LdplayerState state) {
+        return List.of((long) state.getPid(), (long) state.getVboxPid());
+    }
+
+    private static long remainingNanos(long deadlineNanos) {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Set global http proxy. All settings are written in parallel over one adb connection.
      * If the ldplayer is not running, launch it first.
      * The http proxy setting take effects after reboot.
      *
@@ -229,12 +412,13 @@ public class LdplayerService {
      * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
      * @throws LdplayerFailureException  underlying command is executed but considered as failure
      *                                   according to exit value or output
+     * @throws AdbFailureException  fail to put settings over adb
      */
-    @Deprecated
     public void setHttpProxy(int index, String host, int port, String exclusion)
-            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException {
+            throws InterruptedException, LdplayerFailureException, CommandExecutionFailureException,
+            AdbFailureException {
 
-        if (ldconsole.isRunning(index)) {
+        if (!ldconsole.isRunning(index)) {
             launchAndWaitAndroidReady(index);
         }
 
@@ -242,10 +426,12 @@ public class LdplayerService {
             TimeUnit.SECONDS.sleep(10);
         }
 
-        ldconsole.putSetting(index, "global", "global_http_proxy_host", host);
-        ldconsole.putSetting(index, "global", "global_http_proxy_port", String.valueOf(port));
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("global_http_proxy_host", host);
+        settings.put("global_http_proxy_port", String.valueOf(port));
         if (StringUtils.isNotBlank(exclusion)) {
-            ldconsole.putSetting(index, "global", "global_http_proxy_exclusion_list", exclusion);
+            settings.put("global_http_proxy_exclusion_list", exclusion);
         }
+        adbClient.putSettings(index, "global", settings);
     }
 }
@@ -11,15 +11,24 @@ class LdplayerState {
     int index;
 
     String title;
-//
-//    int topWindowHandle;
-//
-//    int bindingWindowHandle;
+
+    int topWindowHandle;
+
+    int bindingWindowHandle;
 
     boolean androidReady;
 
-//    int pid;
-//
-//    int vboxPid;
+    /**
+     * -1 if not running
+     */
+    int pid;
+
+    /**
+     * -1 if not running
+     */
+    int vboxPid;
 
+    boolean isRunning() {
+        return pid > 0;
+    }
 }
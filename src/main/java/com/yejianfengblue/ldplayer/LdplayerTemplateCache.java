@@ -0,0 +1,508 @@
+package com.yejianfengblue.ldplayer;
+
+import com.yejianfengblue.ldplayer.command.CommandExecutionFailureException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Pre-baked templates. A template is a stopped ldplayer which is already modified and installed with apks
+ * for a creation spec, so that later creations of the same spec copy from it directly, skipping modify and install.
+ * <p>
+ * A spec is hashed from fromIndex, manufacturer, model, resource profile values, and path and content of each apk.
+ * A template is titled {@code template-<lineage hash>-<hash>}, where the lineage hash leaves out apk content,
+ * so that it's found again after restart.
+ * While baking, it's titled with suffix {@code -baking}, and a leftover of that title is removed.
+ * When the content of an apk changes, the templates baked with the old content are removed,
+ * including the ones left by a previous run.
+ * <p>
+ * A template is never launched except by its baking, so it can't be launched or quit by index,
+ * and one found running is quit before it's copied or removed.
+ * <p>
+ * When templates use more than {@code ldplayer.template-cache.disk-budget-mb} of disk, the least recently used
+ * ones are removed, unless being copied. Disk usage is measured under {@code ldplayer.template-cache.vms-directory},
+ * in which ldplayer of index N is stored in {@code leidianN}, which is required if enabled.
+ */
+@Component
+@Slf4j
+class LdplayerTemplateCache {
+
+    static final String TITLE_PREFIX = "template-";
+
+    private static final String BAKING_SUFFIX = "-baking";
+
+    private final Ldconsole ldconsole;
+
+    private final LdplayerResourceAccountant resourceAccountant;
+
+    private final boolean enabled;
+
+    private final long diskBudgetBytes;
+
+    /**
+     * {@code null} if not enabled
+     */
+    private final Path vmsDirectory;
+
+    /**
+     * By key, in least recently used order
+     */
+    private final Map<String, Template> templates = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * By title. Baking, reusing and removing a template of the same title are mutually exclusive.
+     * Eviction skips a template whose lock is held, rather than waits for the baking
+     */
+    private final Map<String, ReentrantLock> bakeLocks = new ConcurrentHashMap<>();
+
+    private final Map<Path, ApkHash> apkHashes = new ConcurrentHashMap<>();
+
+    LdplayerTemplateCache(Ldconsole ldconsole,
+                          LdplayerResourceAccountant resourceAccountant,
+                          @Value("${ldplayer.template-cache.enabled:false}") boolean enabled,
+                          @Value("${ldplayer.template-cache.disk-budget-mb:20480}") long diskBudgetMb,
+                          @Value("${ldplayer.template-cache.vms-directory:}") String vmsDirectory) {
+
+        this.ldconsole = ldconsole;
+        this.resourceAccountant = resourceAccountant;
+        this.enabled = enabled;
+        this.diskBudgetBytes = diskBudgetMb * 1024 * 1024;
+        this.vmsDirectory = StringUtils.isBlank(vmsDirectory) ? null : Paths.get(vmsDirectory);
+        if (enabled && (this.vmsDirectory == null || !Files.isDirectory(this.vmsDirectory))) {
+            throw new IllegalStateException(String.format(
+                    "ldplayer.template-cache.vms-directory '%s' is not a directory. "
+                            + "It's required to enforce the disk budget of templates", vmsDirectory));
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    static boolean isTemplate(String title) {
+        return title != null && title.startsWith(TITLE_PREFIX);
+    }
+
+    /**
+     * @throws LdplayerFailureException  fail to read an apk
+     */
+    Spec spec(LdplayerCreation ldplayerCreation, LdplayerResourceProfile resourceProfile)
+            throws LdplayerFailureException {
+
+        List<String> apkPaths = Optional.ofNullable(ldplayerCreation.getInstallApkPaths()).orElse(List.of());
+
+        StringBuilder lineage = new StringBuilder()
+                .append("fromIndex=").append(ldplayerCreation.getFromIndex()).append('\n')
+                .append("manufacturer=").append(ldplayerCreation.getManufacturer()).append('\n')
+                .append("model=").append(ldplayerCreation.getModel()).append('\n');
+        if (resourceProfile != null) {
+            lineage.append("cpu=").append(resourceProfile.getCpu()).append('\n')
+                    .append("memoryMb=").append(resourceProfile.getMemoryMb()).append('\n')
+                    .append("resolution=").append(resourceProfile.getWidth()).append(',')
+                    .append(resourceProfile.getHeight()).append(',')
+                    .append(resourceProfile.getDpi()).append('\n');
+        }
+        for (String apkPath : apkPaths) {
+            lineage.append("apk=").append(apkPath).append('\n');
+        }
+
+        StringBuilder content = new StringBuilder(lineage);
+        for (String apkPath : apkPaths) {
+            content.append("sha256=").append(apkHash(Paths.get(apkPath))).append('\n');
+        }
+
+        String key = sha256Hex(content.toString());
+        String lineageHash = sha256Hex(lineage.toString());
+        return new Spec(key, lineageHash, TITLE_PREFIX + lineageHash.substring(0, 12) + "-" + key.substring(0, 12));
+    }
+
+    /**
+     * Find the template of the spec, or bake it if not found. Only one template of a spec is baked at a time.
+     * The template must be released after copy, before which it won't be removed.
+     *
+     * @param baker  bake under the given title and return the index, leaving the template stopped
+     * @param quitter  quit the template if it's found running, so that a live disk isn't copied
+     * @return  index of the template
+     * @throws InterruptedException  underlying command is interrupted
+     * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    int acquire(Spec spec, Baker baker, Quitter quitter)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        ReentrantLock bakeLock = bakeLock(spec.getTitle());
+        bakeLock.lockInterruptibly();
+        try {
+            Template registered;
+            synchronized (this) {
+                registered = templates.get(spec.getKey());
+            }
+            List<LdplayerState> states = ldconsole.list();
+            if (registered != null) {
+                quitIfRunning(registered.index, states, quitter);
+                synchronized (this) {
+                    registered.users++;
+                    markCurrent(registered);
+                }
+                return registered.index;
+            }
+
+            Optional<LdplayerState> survivor = states.stream()
+                    .filter(state -> state.getTitle().equals(spec.getTitle()))
+                    .findFirst();
+            int index;
+            if (survivor.isPresent()) {
+                index = survivor.get().getIndex();
+                quitIfRunning(index, states, quitter);
+                log.info("Reuse template {} of index {}", spec.getTitle(), index);
+            } else {
+                index = baker.bake(spec.getTitle() + BAKING_SUFFIX);
+                ldconsole.rename(index, spec.getTitle());
+                log.info("Baked template {} of index {}", spec.getTitle(), index);
+            }
+
+            Template template = new Template(spec, index, diskUsage(index));
+            synchronized (this) {
+                template.users++;
+                templates.put(spec.getKey(), template);
+                markCurrent(template);
+            }
+            return index;
+
+        } finally {
+            bakeLock.unlock();
+        }
+    }
+
+    synchronized void release(Spec spec) {
+
+        templates.values().stream()
+                .filter(template -> template.spec.equals(spec))
+                .forEach(template -> template.users--);
+    }
+
+    /**
+     * Remove templates not being copied, which are
+     * <ul>
+     *     <li>baked with old apk content, including the ones left by a previous run</li>
+     *     <li>leftover of a failed baking</li>
+     *     <li>least recently used, while disk usage exceeds the budget.
+     *     Templates left by a previous run and not reused yet are considered least recently used</li>
+     * </ul>
+     * A running one, such as left by a failed baking which installs apks, is quit before removed.
+     * Failures are logged, and left for next time.
+     *
+     * @param quitter  quit a running template before it's removed
+     * @throws InterruptedException  underlying command is interrupted
+     */
+    void evict(Quitter quitter) throws InterruptedException {
+
+        List<LdplayerState> states;
+        try {
+            states = ldconsole.list();
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            log.warn("Skip template eviction. {}", exception.getMessage());
+            return;
+        }
+
+        List<LdplayerState> orphanVictims = new ArrayList<>();
+        List<Template> victims = new ArrayList<>();
+        synchronized (this) {
+
+            Set<Integer> registered = templates.values().stream()
+                    .map(template -> template.index)
+                    .collect(Collectors.toSet());
+            List<LdplayerState> orphans = states.stream()
+                    .filter(state -> state.getTitle().startsWith(TITLE_PREFIX))
+                    .filter(state -> !registered.contains(state.getIndex()))
+                    .collect(Collectors.toList());
+
+            // title of the current template by the lineage part of the title
+            Map<String, String> currentTitles = templates.values().stream()
+                    .filter(template -> !template.stale)
+                    .collect(Collectors.toMap(template -> lineageOf(template.spec.getTitle()),
+                            template -> template.spec.getTitle(), (title, otherTitle) -> title));
+
+            long usage = templates.values().stream().mapToLong(template -> template.diskUsage).sum();
+            Map<LdplayerState, Long> orphanDiskUsages = new LinkedHashMap<>();
+            for (LdplayerState orphan : orphans) {
+                String currentTitle = currentTitles.get(lineageOf(orphan.getTitle()));
+                if (orphan.getTitle().endsWith(BAKING_SUFFIX)) {
+                    orphanVictims.add(orphan);
+                } else if (currentTitle != null && !currentTitle.equals(orphan.getTitle())) {
+                    log.info("Template {} of index {} is stale, because apk content changes",
+                            orphan.getTitle(), orphan.getIndex());
+                    orphanVictims.add(orphan);
+                } else {
+                    long orphanDiskUsage = diskUsage(orphan.getIndex());
+                    orphanDiskUsages.put(orphan, orphanDiskUsage);
+                    usage += orphanDiskUsage;
+                }
+            }
+
+            for (Template template : templates.values()) {
+                if (template.stale && template.users == 0) {
+                    victims.add(template);
+                    usage -= template.diskUsage;
+                }
+            }
+            for (Iterator<Map.Entry<LdplayerState, Long>> iterator = orphanDiskUsages.entrySet().iterator();
+                 usage > diskBudgetBytes && iterator.hasNext(); ) {
+                Map.Entry<LdplayerState, Long> orphan = iterator.next();
+                orphanVictims.add(orphan.getKey());
+                usage -= orphan.getValue();
+            }
+            // keep the most recently used one, even if it alone exceeds the budget
+            List<Template> leastRecentlyUsed = new ArrayList<>(templates.values());
+            for (int i = 0; usage > diskBudgetBytes && i < leastRecentlyUsed.size() - 1; i++) {
+                Template template = leastRecentlyUsed.get(i);
+                if (!template.stale && template.users == 0) {
+                    victims.add(template);
+                    usage -= template.diskUsage;
+                }
+            }
+        }
+
+        for (LdplayerState orphanVictim : orphanVictims) {
+            ReentrantLock bakeLock = bakeLock(StringUtils.removeEnd(orphanVictim.getTitle(), BAKING_SUFFIX));
+            if (bakeLock.tryLock()) {
+                try {
+                    boolean registered;
+                    synchronized (this) {
+                        // baked or reused since listed
+                        registered = templates.values().stream()
+                                .anyMatch(template -> template.index == orphanVictim.getIndex());
+                    }
+                    if (!registered) {
+                        remove(orphanVictim.getIndex(), states, quitter);
+                    }
+                } finally {
+                    bakeLock.unlock();
+                }
+            }
+        }
+        for (Template victim : victims) {
+            ReentrantLock bakeLock = bakeLock(victim.spec.getTitle());
+            if (bakeLock.tryLock()) {
+                try {
+                    boolean removed;
+                    synchronized (this) {
+                        removed = victim.users == 0 && templates.remove(victim.spec.getKey(), victim);
+                    }
+                    if (removed) {
+                        remove(victim.index, states, quitter);
+                    }
+                } finally {
+                    bakeLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return  the lineage part of a template title
+     */
+    private static String lineageOf(String title) {
+        return StringUtils.substringBefore(StringUtils.removeStart(title, TITLE_PREFIX), "-");
+    }
+
+    private ReentrantLock bakeLock(String title) {
+        return bakeLocks.computeIfAbsent(title, t -> new ReentrantLock());
+    }
+
+    /**
+     * Mark other templates of the same lineage stale, because the content of their apks differs.
+     * Must hold the lock of this.
+     */
+    private void markCurrent(Template current) {
+
+        current.stale = false;
+        for (Template template : templates.values()) {
+            if (template != current && template.spec.getLineage().equals(current.spec.getLineage())) {
+                if (!template.stale) {
+                    log.info("Template {} of index {} is stale, because apk content changes",
+                            template.spec.getTitle(), template.index);
+                }
+                template.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Must hold the bake lock of the template
+     *
+     * @throws InterruptedException  underlying command is interrupted
+     * @throws CommandExecutionFailureException  underlying command execution failed due to output reading failure
+     * @throws LdplayerFailureException  underlying command is executed but considered as failure
+     *                                   according to exit value or output
+     */
+    private static void quitIfRunning(int index, List<LdplayerState> states, Quitter quitter)
+            throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException {
+
+        boolean running = states.stream()
+                .anyMatch(state -> state.getIndex() == index && state.isRunning());
+        if (running) {
+            log.warn("Template of index {} is running, quit it", index);
+            quitter.quit(index);
+        }
+    }
+
+    /**
+     * Must hold the bake lock of the template
+     */
+    private void remove(int index, List<LdplayerState> states, Quitter quitter) throws InterruptedException {
+
+        try {
+            quitIfRunning(index, states, quitter);
+            ldconsole.remove(index);
+            resourceAccountant.unassign(index);
+            log.info("Removed template of index {}", index);
+        } catch (CommandExecutionFailureException | LdplayerFailureException exception) {
+            log.warn("Fail to remove template of index {}. {}", index, exception.getMessage());
+        }
+    }
+
+    private long diskUsage(int index) {
+
+        if (vmsDirectory == null) {
+            return 0;
+        }
+        Path directory = vmsDirectory.resolve("leidian" + index);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        } catch (IOException | UncheckedIOException exception) {
+            log.warn("Fail to measure disk usage of {}. {}", directory, exception.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Cached by size and last modified time, to avoid reading unchanged apks again
+     *
+     * @throws LdplayerFailureException  fail to read the apk
+     */
+    private String apkHash(Path apkPath) throws LdplayerFailureException {
+
+        try {
+            long size = Files.size(apkPath);
+            long lastModifiedMillis = Files.getLastModifiedTime(apkPath).toMillis();
+            ApkHash apkHash = apkHashes.get(apkPath);
+            if (apkHash == null || apkHash.getSize() != size || apkHash.getLastModifiedMillis() != lastModifiedMillis) {
+
+                MessageDigest digest = sha256();
+                try (InputStream inputStream = Files.newInputStream(apkPath)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int length;
+                    while ((length = inputStream.read(buffer)) > 0) {
+                        digest.update(buffer, 0, length);
+                    }
+                }
+                apkHash = new ApkHash(size, lastModifiedMillis, hex(digest.digest()));
+                apkHashes.put(apkPath, apkHash);
+            }
+            return apkHash.getSha256();
+
+        } catch (IOException ioException) {
+            String errMsg = String.format("Fail to read apk %s. %s", apkPath, ioException.getMessage());
+            log.error(errMsg);
+            throw new LdplayerFailureException(errMsg);
+        }
+    }
+
+    private static String sha256Hex(String text) {
+        return hex(sha256().digest(text.getBytes(UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return String.format("%0" + bytes.length * 2 + "x", new BigInteger(1, bytes));
+    }
+
+    @lombok.Value
+    static class Spec {
+
+        String key;
+
+        /**
+         * Hash of the spec without apk content
+         */
+        String lineage;
+
+        String title;
+    }
+
+    @lombok.Value
+    private static class ApkHash {
+
+        long size;
+
+        long lastModifiedMillis;
+
+        String sha256;
+    }
+
+    private static class Template {
+
+        private final Spec spec;
+
+        private final int index;
+
+        private final long diskUsage;
+
+        private int users = 0;
+
+        private boolean stale = false;
+
+        private Template(Spec spec, int index, long diskUsage) {
+            this.spec = spec;
+            this.index = index;
+            this.diskUsage = diskUsage;
+        }
+    }
+
+    @FunctionalInterface
+    interface Baker {
+
+        int bake(String title) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException;
+    }
+
+    @FunctionalInterface
+    interface Quitter {
+
+        void quit(int index) throws InterruptedException, CommandExecutionFailureException, LdplayerFailureException;
+    }
+}
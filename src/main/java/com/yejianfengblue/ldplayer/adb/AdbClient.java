@@ -0,0 +1,196 @@
+package com.yejianfengblue.ldplayer.adb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Talk to the adbd of each emulator directly over the adb wire protocol, instead of spawning {@code ldconsole adb}.
+ * One persistent connection is kept per emulator, which is the only connection adbd accepts,
+ * and shell, push and settings commands are multiplexed over it.
+ * The adbd of emulator of index N listens on {@code ldplayer.adb.base-port + 2 * N}.
+ */
+@Service
+@Slf4j
+public class AdbClient {
+
+    private static final int SYNC_DATA_MAX = 64 * 1024;
+
+    private final String host;
+
+    private final int basePort;
+
+    private final long timeoutSeconds;
+
+    private final Map<Integer, AdbConnection> connections = new ConcurrentHashMap<>();
+
+    public AdbClient(@Value("${ldplayer.adb.host:127.0.0.1}") String host,
+                     @Value("${ldplayer.adb.base-port:5555}") int basePort,
+                     @Value("${ldplayer.adb.timeout-seconds:30}") long timeoutSeconds) {
+        this.host = host;
+        this.basePort = basePort;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @return  output of the command, both stdout and stderr
+     * @throws InterruptedException  interrupted when wait for output
+     * @throws AdbFailureException  fail to connect, or the command is refused or times out
+     */
+    public String shell(int index, String command) throws InterruptedException, AdbFailureException {
+
+        AdbStream stream = connection(index).open("shell:" + command);
+        try {
+            return new String(stream.readUntilClosed(), UTF_8);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * {@code settings put} all in parallel over the same connection, then wait for all.
+     * Because {@code settings put} outputs nothing if succeeds, any output is considered as failure.
+     *
+     * @param namespace global, secure, system
+     * @throws InterruptedException  interrupted when wait for output
+     * @throws AdbFailureException  fail to connect, any command is refused, fails or times out
+     */
+    public void putSettings(int index, String namespace, Map<String, String> settings)
+            throws InterruptedException, AdbFailureException {
+
+        AdbConnection connection = connection(index);
+        List<AdbStream> streams = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                streams.add(connection.open(String.format("shell:settings put %s %s %s",
+                        namespace, setting.getKey(), quote(setting.getValue()))));
+            }
+            for (AdbStream stream : streams) {
+                String output = new String(stream.readUntilClosed(), UTF_8).trim();
+                if (!output.isEmpty()) {
+                    failures.add(output);
+                }
+            }
+        } finally {
+            streams.forEach(AdbStream::close);
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AdbFailureException(String.format("Fail to put %s settings %s for index %d. %s",
+                    namespace, settings.keySet(), index, String.join("\n", failures)));
+        }
+    }
+
+    /**
+     * Push by the sync protocol
+     *
+     * @param mode  file mode, such as {@code 0644}
+     * @throws InterruptedException  interrupted when wait for adbd
+     * @throws AdbFailureException  fail to connect, fail to read local file, or adbd fails to write remote file
+     */
+    public void push(int index, Path localPath, String remotePath, int mode)
+            throws InterruptedException, AdbFailureException {
+
+        AdbStream stream = connection(index).open("sync:");
+        try (InputStream inputStream = Files.newInputStream(localPath)) {
+
+            stream.write(syncRequest("SEND", (remotePath + "," + mode).getBytes(UTF_8)));
+
+            byte[] buffer = new byte[SYNC_DATA_MAX];
+            int length;
+            while ((length = inputStream.readNBytes(buffer, 0, buffer.length)) > 0) {
+                byte[] data = new byte[length];
+                System.arraycopy(buffer, 0, data, 0, length);
+                stream.write(syncRequest("DATA", data));
+            }
+            stream.write(syncHeader("DONE", (int) (Files.getLastModifiedTime(localPath).toMillis() / 1000)));
+
+            byte[] response = stream.readFully(8);
+            String id = new String(response, 0, 4, UTF_8);
+            if (!"OKAY".equals(id)) {
+                int messageLength = ByteBuffer.wrap(response, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                String message = new String(stream.readFully(messageLength), UTF_8);
+                throw new AdbFailureException(String.format("Fail to push index %d from local %s to remote %s. %s",
+                        index, localPath, remotePath, message));
+            }
+            stream.write(syncHeader("QUIT", 0));
+
+        } catch (IOException ioException) {
+            throw new AdbFailureException(String.format("Fail to read local file %s. %s",
+                    localPath, ioException.getMessage()));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Close the connection, such as after the emulator quits. The next command reconnects.
+     */
+    public void disconnect(int index) {
+
+        AdbConnection connection = connections.remove(index);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @PreDestroy
+    void disconnectAll() {
+        connections.keySet().forEach(this::disconnect);
+    }
+
+    private AdbConnection connection(int index) throws AdbFailureException {
+
+        AdbConnection connection = connections.get(index);
+        if (connection == null || connection.isClosed()) {
+            synchronized (connections) {
+                connection = connections.get(index);
+                if (connection == null || connection.isClosed()) {
+                    connection = AdbConnection.connect(host, basePort + 2 * index, timeoutSeconds, TimeUnit.SECONDS);
+                    connections.put(index, connection);
+                }
+            }
+        }
+        return connection;
+    }
+
+    private static byte[] syncHeader(String id, int value) {
+
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .put(id.getBytes(UTF_8))
+                .putInt(value)
+                .array();
+    }
+
+    private static byte[] syncRequest(String id, byte[] data) {
+
+        return ByteBuffer.allocate(8 + data.length).order(ByteOrder.LITTLE_ENDIAN)
+                .put(id.getBytes(UTF_8))
+                .putInt(data.length)
+                .put(data)
+                .array();
+    }
+
+    /**
+     * Single quote for the android shell
+     */
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,220 @@
+package com.yejianfengblue.ldplayer.adb;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * One persistent connection to an adbd, over which many {@link AdbStream} are multiplexed.
+ * A reader thread dispatches incoming messages to streams by their local id.
+ * Authentication is not supported, so adbd must not be secure, which is the default of emulators.
+ */
+@Slf4j
+class AdbConnection {
+
+    private static final int VERSION = 0x01000001;
+
+    private static final int MAX_PAYLOAD = 256 * 1024;
+
+    private final String address;
+
+    private final long timeoutNanos;
+
+    private final Socket socket;
+
+    private final DataInputStream inputStream;
+
+    private final OutputStream outputStream;
+
+    private final int maxPayload;
+
+    private final AtomicInteger nextLocalId = new AtomicInteger(1);
+
+    private final Map<Integer, AdbStream> streams = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    private AdbConnection(String address, long timeoutNanos, Socket socket, DataInputStream inputStream,
+                          OutputStream outputStream, int maxPayload) {
+        this.address = address;
+        this.timeoutNanos = timeoutNanos;
+        this.socket = socket;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.maxPayload = maxPayload;
+    }
+
+    /**
+     * Connect and handshake, then start the reader thread
+     *
+     * @throws AdbFailureException  if fail to connect, or adbd requires authentication
+     */
+    static AdbConnection connect(String host, int port, long timeout, TimeUnit unit) throws AdbFailureException {
+
+        String address = host + ":" + port;
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), (int) unit.toMillis(timeout));
+            socket.setSoTimeout((int) unit.toMillis(timeout));
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+
+            new AdbMessage(AdbMessage.CNXN, VERSION, MAX_PAYLOAD, "host::\0".getBytes(UTF_8))
+                    .writeTo(outputStream);
+            AdbMessage reply;
+            do {
+                reply = AdbMessage.readFrom(inputStream);
+                if (reply.getCommand() == AdbMessage.AUTH) {
+                    throw new AdbFailureException(String.format(
+                            "adbd %s requires authentication, which is not supported", address));
+                }
+            } while (reply.getCommand() != AdbMessage.CNXN);
+
+            // the connection is idle between commands, so no read timeout from now on
+            socket.setSoTimeout(0);
+            AdbConnection connection = new AdbConnection(address, unit.toNanos(timeout), socket, inputStream,
+                    outputStream, Math.min(MAX_PAYLOAD, reply.getArg1()));
+            Thread reader = new Thread(connection::readLoop, "adb-" + address);
+            reader.setDaemon(true);
+            reader.start();
+            log.debug("Connected to adbd {}, banner '{}'", address, new String(reply.getPayload(), UTF_8).trim());
+            return connection;
+
+        } catch (IOException ioException) {
+            closeQuietly(socket);
+            throw new AdbFailureException(String.format("Fail to connect to adbd %s. %s",
+                    address, ioException.getMessage()));
+        } catch (AdbFailureException adbFailureException) {
+            closeQuietly(socket);
+            throw adbFailureException;
+        }
+    }
+
+    int getMaxPayload() {
+        return maxPayload;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @param destination  service of adbd, such as {@code shell:ls} or {@code sync:}
+     * @throws AdbFailureException  if the destination is refused, or the connection is closed
+     */
+    AdbStream open(String destination) throws InterruptedException, AdbFailureException {
+
+        AdbStream stream = new AdbStream(this, nextLocalId.getAndIncrement(), destination,
+                timeoutNanos, TimeUnit.NANOSECONDS);
+        streams.put(stream.getLocalId(), stream);
+        try {
+            send(new AdbMessage(AdbMessage.OPEN, stream.getLocalId(), 0, (destination + "\0").getBytes(UTF_8)));
+            stream.awaitOpened();
+            return stream;
+        } catch (AdbFailureException | InterruptedException exception) {
+            stream.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * @throws AdbFailureException  if the connection is closed or fail to send
+     */
+    void send(AdbMessage message) throws AdbFailureException {
+
+        if (closed) {
+            throw new AdbFailureException(String.format("Connection to adbd %s is closed", address));
+        }
+        synchronized (outputStream) {
+            try {
+                message.writeTo(outputStream);
+            } catch (IOException ioException) {
+                close(ioException.getMessage());
+                throw new AdbFailureException(String.format("Fail to send to adbd %s. %s",
+                        address, ioException.getMessage()));
+            }
+        }
+    }
+
+    void sendQuietly(AdbMessage message) {
+        try {
+            send(message);
+        } catch (AdbFailureException adbFailureException) {
+            log.debug(adbFailureException.getMessage());
+        }
+    }
+
+    void unregister(AdbStream stream) {
+        streams.remove(stream.getLocalId());
+    }
+
+    void close() {
+        close("Connection closed locally");
+    }
+
+    private void readLoop() {
+
+        try {
+            while (!closed) {
+                AdbMessage message = AdbMessage.readFrom(inputStream);
+                AdbStream stream = streams.get(message.getArg1());
+                if (stream == null) {
+                    continue;
+                }
+                switch (message.getCommand()) {
+                    case AdbMessage.OKAY:
+                        stream.onOkay(message.getArg0());
+                        break;
+                    case AdbMessage.WRTE:
+                        stream.onWrite(message.getPayload());
+                        sendQuietly(new AdbMessage(AdbMessage.OKAY, message.getArg1(), message.getArg0(),
+                                new byte[0]));
+                        break;
+                    case AdbMessage.CLSE:
+                        stream.onRemoteClose();
+                        streams.remove(message.getArg1());
+                        break;
+                    default:
+                        log.debug("Ignore adb message {} from {}", Integer.toHexString(message.getCommand()), address);
+                }
+            }
+        } catch (EOFException eofException) {
+            close("Connection closed by adbd");
+        } catch (IOException ioException) {
+            close(ioException.getMessage());
+        }
+    }
+
+    private void close(String reason) {
+
+        if (!closed) {
+            closed = true;
+            closeQuietly(socket);
+            streams.values().forEach(stream -> stream.onClose(reason));
+            streams.clear();
+            log.debug("Connection to adbd {} is closed. {}", address, reason);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing more to do
+        }
+    }
+}
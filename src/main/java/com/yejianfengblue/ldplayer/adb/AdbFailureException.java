@@ -0,0 +1,8 @@
+package com.yejianfengblue.ldplayer.adb;
+
+public class AdbFailureException extends Exception {
+
+    public AdbFailureException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,91 @@
+package com.yejianfengblue.ldplayer.adb;
+
+import lombok.Value;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A message of the adb transport protocol, which is a 24 bytes little-endian header followed by the payload.
+ */
+@Value
+class AdbMessage {
+
+    static final int CNXN = 0x4e584e43;
+
+    static final int AUTH = 0x48545541;
+
+    static final int OPEN = 0x4e45504f;
+
+    static final int OKAY = 0x59414b4f;
+
+    static final int CLSE = 0x45534c43;
+
+    static final int WRTE = 0x45545257;
+
+    private static final int HEADER_LENGTH = 24;
+
+    private static final int MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+    int command;
+
+    int arg0;
+
+    int arg1;
+
+    byte[] payload;
+
+    void writeTo(OutputStream outputStream) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(command);
+        header.putInt(arg0);
+        header.putInt(arg1);
+        header.putInt(payload.length);
+        header.putInt(checksum(payload));
+        header.putInt(~command);
+        outputStream.write(header.array());
+        outputStream.write(payload);
+        outputStream.flush();
+    }
+
+    /**
+     * @throws EOFException  if the connection is closed
+     * @throws IOException   if fail to read or the message is malformed
+     */
+    static AdbMessage readFrom(DataInputStream inputStream) throws IOException {
+
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        inputStream.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        int command = header.getInt();
+        int arg0 = header.getInt();
+        int arg1 = header.getInt();
+        int payloadLength = header.getInt();
+        header.getInt(); // checksum, not verified as newer adbd sends 0
+        int magic = header.getInt();
+        if (magic != ~command || payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+            throw new IOException(String.format("Malformed adb message header, command %08x, magic %08x, length %d",
+                    command, magic, payloadLength));
+        }
+        byte[] payload = new byte[payloadLength];
+        inputStream.readFully(payload);
+        return new AdbMessage(command, arg0, arg1, payload);
+    }
+
+    /**
+     * Older adbd verifies the sum of payload bytes
+     */
+    private static int checksum(byte[] payload) {
+
+        int sum = 0;
+        for (byte b : payload) {
+            sum += b & 0xff;
+        }
+        return sum;
+    }
+}
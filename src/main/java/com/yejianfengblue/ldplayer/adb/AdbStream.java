@@ -0,0 +1,179 @@
+package com.yejianfengblue.ldplayer.adb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One logical stream multiplexed over an {@link AdbConnection}, such as a shell command or a sync session.
+ * Incoming data is buffered until read. Outgoing data is sent one message at a time,
+ * each after the previous one is acknowledged by an OKAY, which is the flow control of the adb protocol.
+ */
+class AdbStream {
+
+    private final AdbConnection connection;
+
+    private final int localId;
+
+    private final String destination;
+
+    private final long timeoutNanos;
+
+    private int remoteId = 0;
+
+    private boolean opened = false;
+
+    private boolean writeReady = false;
+
+    private boolean closed = false;
+
+    private boolean closedByRemote = false;
+
+    private String closeReason;
+
+    private byte[] readBuffer = new byte[0];
+
+    AdbStream(AdbConnection connection, int localId, String destination, long timeout, TimeUnit unit) {
+        this.connection = connection;
+        this.localId = localId;
+        this.destination = destination;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    int getLocalId() {
+        return localId;
+    }
+
+    synchronized void onOkay(int remoteId) {
+        this.remoteId = remoteId;
+        this.opened = true;
+        this.writeReady = true;
+        notifyAll();
+    }
+
+    synchronized void onWrite(byte[] data) {
+        byte[] newReadBuffer = Arrays.copyOf(readBuffer, readBuffer.length + data.length);
+        System.arraycopy(data, 0, newReadBuffer, readBuffer.length, data.length);
+        readBuffer = newReadBuffer;
+        notifyAll();
+    }
+
+    /**
+     * CLSE from adbd, which is the only normal end of a stream
+     */
+    synchronized void onRemoteClose() {
+        if (!closed) {
+            closedByRemote = true;
+        }
+        onClose("Closed by adbd");
+    }
+
+    /**
+     * Closed locally, or the connection is lost
+     */
+    synchronized void onClose(String reason) {
+        if (!closed) {
+            closed = true;
+            closeReason = reason;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @throws AdbFailureException  if the destination is refused, or not opened in time
+     */
+    synchronized void awaitOpened() throws InterruptedException, AdbFailureException {
+
+        await(() -> opened || closed, "open");
+        if (!opened) {
+            throw new AdbFailureException(String.format("Fail to open '%s'. %s", destination, closeReason));
+        }
+    }
+
+    /**
+     * Split into messages no larger than the max payload of the connection
+     *
+     * @throws AdbFailureException  if the stream is closed, or data is not acknowledged in time
+     */
+    void write(byte[] data) throws InterruptedException, AdbFailureException {
+
+        int maxPayload = connection.getMaxPayload();
+        for (int offset = 0; offset < data.length; offset += maxPayload) {
+            byte[] chunk = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + maxPayload));
+            int remoteId;
+            synchronized (this) {
+                await(() -> writeReady || closed, "write");
+                if (closed) {
+                    throw new AdbFailureException(String.format("Fail to write to '%s'. %s", destination, closeReason));
+                }
+                writeReady = false;
+                remoteId = this.remoteId;
+            }
+            connection.send(new AdbMessage(AdbMessage.WRTE, localId, remoteId, chunk));
+        }
+    }
+
+    /**
+     * @throws AdbFailureException  if the stream is closed before {@code length} bytes are received, or timeout
+     */
+    synchronized byte[] readFully(int length) throws InterruptedException, AdbFailureException {
+
+        await(() -> readBuffer.length >= length || closed, "read");
+        if (readBuffer.length < length) {
+            throw new AdbFailureException(String.format("'%s' is closed before %d bytes are read. %s",
+                    destination, length, closeReason));
+        }
+        byte[] data = Arrays.copyOf(readBuffer, length);
+        readBuffer = Arrays.copyOfRange(readBuffer, length, readBuffer.length);
+        return data;
+    }
+
+    /**
+     * @return  all data until the remote closes the stream
+     * @throws AdbFailureException  if the stream is not closed in time, or closed other than by adbd,
+     *                              such as the connection is lost, in which case the output is incomplete
+     */
+    synchronized byte[] readUntilClosed() throws InterruptedException, AdbFailureException {
+
+        await(() -> closed, "read");
+        if (!closedByRemote) {
+            throw new AdbFailureException(String.format("'%s' is closed before completion. %s",
+                    destination, closeReason));
+        }
+        byte[] data = readBuffer;
+        readBuffer = new byte[0];
+        return data;
+    }
+
+    void close() {
+
+        boolean sendClose;
+        int remoteId;
+        synchronized (this) {
+            sendClose = opened && !closed;
+            remoteId = this.remoteId;
+            onClose("Closed locally");
+        }
+        if (sendClose) {
+            connection.sendQuietly(new AdbMessage(AdbMessage.CLSE, localId, remoteId, new byte[0]));
+        }
+        connection.unregister(this);
+    }
+
+    private void await(Condition condition, String operation) throws InterruptedException, AdbFailureException {
+
+        long deadlineNanos = System.nanoTime() + timeoutNanos;
+        while (!condition.isMet()) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new AdbFailureException(String.format("Timeout to %s '%s'", operation, destination));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean isMet();
+    }
+}
@@ -0,0 +1,138 @@
+package com.yejianfengblue.ldplayer.command;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execute commands of one {@link CommandLane} with bounded concurrency and a bounded queue.
+ * A command is rejected immediately if the queue is full, instead of waiting behind the others.
+ */
+@Slf4j
+class CommandBulkhead {
+
+    private final CommandLane lane;
+
+    private final int queueCapacity;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong started = new AtomicLong();
+
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    CommandBulkhead(CommandLane lane, int concurrency, int queueCapacity) {
+
+        this.lane = lane;
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "command-" + lane.name().toLowerCase() + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Run in this bulkhead and wait for the result
+     *
+     * @throws InterruptedException  interrupted when wait, or the command is interrupted
+     * @throws CommandRejectedException  if the bulkhead is full
+     * @throws CommandExecutionFailureException  if the command fails
+     */
+    <T> T run(String cmd, Callable<T> task) throws InterruptedException, CommandExecutionFailureException {
+
+        long enqueuedNanos = System.nanoTime();
+        // claimed by either the task when it starts, or the caller when it gives up on the task still queued
+        AtomicBoolean claimed = new AtomicBoolean(false);
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    throw new CancellationException();
+                }
+                long queueWaitNanos = System.nanoTime() - enqueuedNanos;
+                started.incrementAndGet();
+                totalQueueWaitNanos.addAndGet(queueWaitNanos);
+                maxQueueWaitNanos.accumulateAndGet(queueWaitNanos, Math::max);
+                try {
+                    return task.call();
+                } finally {
+                    // by the task, not the caller, as an interrupted caller leaves the command running in the lane
+                    completed.incrementAndGet();
+                }
+            });
+            accepted.incrementAndGet();
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            rejected.incrementAndGet();
+            String errMsg = String.format("Command '%s' is rejected because %s lane is full", cmd, lane);
+            log.warn(errMsg);
+            throw new CommandRejectedException(errMsg);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException interruptedException) {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true)) {
+                // never started
+                completed.incrementAndGet();
+            }
+            throw interruptedException;
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof CommandExecutionFailureException) {
+                throw (CommandExecutionFailureException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new CommandExecutionFailureException(
+                        String.format("Command '%s' failed. %s", cmd, cause.getMessage()));
+            }
+        }
+    }
+
+    CommandBulkheadMetrics getMetrics() {
+
+        long startedCount = started.get();
+        return new CommandBulkheadMetrics(
+                lane,
+                executor.getMaximumPoolSize(),
+                queueCapacity,
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                accepted.get(),
+                rejected.get(),
+                completed.get(),
+                startedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueWaitNanos.get() / startedCount),
+                TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get()));
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,27 @@
+package com.yejianfengblue.ldplayer.command;
+
+import lombok.Value;
+
+@Value
+public class CommandBulkheadMetrics {
+
+    CommandLane lane;
+
+    int concurrency;
+
+    int queueCapacity;
+
+    int active;
+
+    int queued;
+
+    long accepted;
+
+    long rejected;
+
+    long completed;
+
+    long averageQueueWaitMillis;
+
+    long maxQueueWaitMillis;
+}
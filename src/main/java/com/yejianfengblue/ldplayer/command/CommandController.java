@@ -0,0 +1,31 @@
+package com.yejianfengblue.ldplayer.command;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("commands")
+@RequiredArgsConstructor
+public class CommandController {
+
+    private final CommandTranscript commandTranscript;
+
+    private final CommandExecutor commandExecutor;
+
+    @GetMapping(path = "/transcript", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<List<CommandTranscriptEntry>> getTranscript(@RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(commandTranscript.getRecent(limit));
+    }
+
+    @GetMapping(path = "/bulkheads", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<List<CommandBulkheadMetrics>> getBulkheads() {
+        return ResponseEntity.ok(commandExecutor.getBulkheadMetrics());
+    }
+}
@@ -1,12 +1,18 @@
 package com.yejianfengblue.ldplayer.command;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.time.Instant;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -15,46 +21,87 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 @Slf4j
 public class CommandExecutor {
 
+    private final CommandTranscript commandTranscript;
+
+    private final Map<CommandLane, CommandBulkhead> bulkheads = new EnumMap<>(CommandLane.class);
+
+    public CommandExecutor(CommandTranscript commandTranscript,
+                           @Value("${ldplayer.command.probe.concurrency:4}") int probeConcurrency,
+                           @Value("${ldplayer.command.probe.queue-capacity:16}") int probeQueueCapacity,
+                           @Value("${ldplayer.command.mutation.concurrency:4}") int mutationConcurrency,
+                           @Value("${ldplayer.command.mutation.queue-capacity:64}") int mutationQueueCapacity) {
+
+        this.commandTranscript = commandTranscript;
+        bulkheads.put(CommandLane.PROBE,
+                new CommandBulkhead(CommandLane.PROBE, probeConcurrency, probeQueueCapacity));
+        bulkheads.put(CommandLane.MUTATION,
+                new CommandBulkhead(CommandLane.MUTATION, mutationConcurrency, mutationQueueCapacity));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        bulkheads.values().forEach(CommandBulkhead::shutdown);
+    }
+
+    public List<CommandBulkheadMetrics> getBulkheadMetrics() {
+        return bulkheads.values().stream()
+                .map(CommandBulkhead::getMetrics)
+                .collect(Collectors.toList());
+    }
+
     /**
+     * Execute in the bulkhead of the lane. Every execution is recorded in {@link CommandTranscript}.
+     *
      * @return  a wrapper of exit value and output lines.
      *          If no output, the output lines is a empty list.
      *
      * @throws InterruptedException  process is interrupted
+     * @throws CommandRejectedException  if the bulkhead of the lane is full
      * @throws CommandExecutionFailureException  if fail to read command output
      */
-    public static CommandExecutionResult execute(String cmd)
+    public CommandExecutionResult execute(CommandLane lane, String cmd)
             throws InterruptedException, CommandExecutionFailureException {
 
-        log.info("Execute command '{}'", cmd);
+        return bulkheads.get(lane).run(cmd, () -> execute(cmd));
+    }
+
+    private CommandExecutionResult execute(String cmd)
+            throws InterruptedException, CommandExecutionFailureException {
+
+        log.debug("Execute command '{}'", cmd);
+        Instant startedAt = Instant.now();
+        long startNanos = System.nanoTime();
 
         Process process = null;
         try {
             process = Runtime.getRuntime().exec(cmd);
-            log.info("Waiting for command '{}' to terminate", cmd);
 
             List<String> outputLines = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))
                     .lines()
                     .collect(Collectors.toList());
-            log.debug("outputLines: {}", outputLines);
-            if (!outputLines.isEmpty()) {
-                log.info("Output:\n{}", String.join("\n", outputLines));
-            } else {
-                log.info("No output");
-            }
 
             int exitValue = process.waitFor();
-            log.info("Exit value: {}", exitValue);
+            commandTranscript.recordCompletion(cmd, startedAt, elapsedMillis(startNanos), exitValue, outputLines);
 
-            return new CommandExecutionResult(process.exitValue(), outputLines);
+            return new CommandExecutionResult(exitValue, outputLines);
 
         } catch (IOException ioException) {
 
-            process.destroy();
-            log.error("Fail to read output of command '{}'", cmd, ioException);
+            if (process != null) {
+                process.destroy();
+            }
+            commandTranscript.recordFailure(cmd, startedAt, elapsedMillis(startNanos), ioException.getMessage());
+            log.debug("Fail to read output of command '{}'", cmd, ioException);
             throw new CommandExecutionFailureException(
                     String.format("Fail to read output of command '%s'. %s", cmd, ioException.getMessage()));
         } catch (InterruptedException interruptedException) {
+            process.destroy();
+            commandTranscript.recordFailure(cmd, startedAt, elapsedMillis(startNanos), "Interrupted");
             throw new InterruptedException(String.format("Command '%s' interrupted", cmd));
         }
     }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
 }
@@ -0,0 +1,18 @@
+package com.yejianfengblue.ldplayer.command;
+
+/**
+ * Commands of each lane are executed by its own {@link CommandBulkhead},
+ * so that slow mutations never delay fast probes.
+ */
+public enum CommandLane {
+
+    /**
+     * Fast and read-only, such as {@code ldconsole list2} and {@code ldconsole isrunning}
+     */
+    PROBE,
+
+    /**
+     * Possibly slow and changing state, such as {@code ldconsole copy} and {@code ldconsole installapp}
+     */
+    MUTATION
+}
@@ -0,0 +1,11 @@
+package com.yejianfengblue.ldplayer.command;
+
+/**
+ * The command is not executed because its bulkhead is full
+ */
+public class CommandRejectedException extends CommandExecutionFailureException {
+
+    public CommandRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,125 @@
+package com.yejianfengblue.ldplayer.command;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep the last N executed commands in a fixed-size ring buffer.
+ * Recording is cheap and never blocks on logging: failures and one in every {@code success-log-sample-rate}
+ * successes are handed over to a single background thread to be logged, and the log is dropped if that thread
+ * falls behind.
+ */
+@Component
+@Slf4j
+public class CommandTranscript {
+
+    private final CommandTranscriptEntry[] entries;
+
+    private final int outputCharLimit;
+
+    private final int successLogSampleRate;
+
+    private final ThreadPoolExecutor logExecutor;
+
+    private long recordedCount = 0;
+
+    public CommandTranscript(@Value("${ldplayer.command.transcript.capacity:500}") int capacity,
+                             @Value("${ldplayer.command.transcript.output-char-limit:2000}") int outputCharLimit,
+                             @Value("${ldplayer.command.transcript.success-log-sample-rate:100}") int successLogSampleRate) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Transcript capacity must be positive, but is " + capacity);
+        }
+        this.entries = new CommandTranscriptEntry[capacity];
+        this.outputCharLimit = outputCharLimit;
+        this.successLogSampleRate = Math.max(1, successLogSampleRate);
+        this.logExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1000),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "command-transcript-log");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    void recordCompletion(String command, Instant startedAt, long durationMillis,
+                          int exitValue, List<String> outputLines) {
+
+        record(command, startedAt, durationMillis, exitValue, outputLines, null);
+    }
+
+    void recordFailure(String command, Instant startedAt, long durationMillis, String failure) {
+
+        record(command, startedAt, durationMillis, null, Collections.emptyList(), failure);
+    }
+
+    private void record(String command, Instant startedAt, long durationMillis,
+                        Integer exitValue, List<String> outputLines, String failure) {
+
+        List<String> truncatedOutputLines = new ArrayList<>();
+        int remainingChars = outputCharLimit;
+        boolean outputTruncated = false;
+        for (String line : outputLines) {
+            if (line.length() > remainingChars) {
+                outputTruncated = true;
+                break;
+            }
+            truncatedOutputLines.add(line);
+            remainingChars -= line.length();
+        }
+
+        CommandTranscriptEntry entry;
+        synchronized (this) {
+            entry = new CommandTranscriptEntry(recordedCount, startedAt, command, exitValue, durationMillis,
+                    Collections.unmodifiableList(truncatedOutputLines), outputTruncated, failure);
+            entries[(int) (recordedCount % entries.length)] = entry;
+            recordedCount++;
+        }
+
+        if (entry.isFailed() || entry.getSequence() % successLogSampleRate == 0) {
+            logExecutor.execute(() -> log(entry));
+        }
+    }
+
+    private static void log(CommandTranscriptEntry entry) {
+
+        if (entry.isFailed()) {
+            log.error("Command '{}' failed after {} ms. {}",
+                    entry.getCommand(), entry.getDurationMillis(), entry.getFailure());
+        } else {
+            log.info("Command '{}' exited with {} in {} ms (sampled). Output:\n{}",
+                    entry.getCommand(), entry.getExitValue(), entry.getDurationMillis(),
+                    String.join("\n", entry.getOutputLines()));
+        }
+    }
+
+    /**
+     * @param limit  max number of entries to return
+     * @return  recorded entries, the most recent first
+     */
+    public synchronized List<CommandTranscriptEntry> getRecent(int limit) {
+
+        int size = (int) Math.min(Math.min(recordedCount, entries.length), Math.max(0, limit));
+        List<CommandTranscriptEntry> recent = new ArrayList<>(size);
+        for (long sequence = recordedCount - 1; recent.size() < size; sequence--) {
+            recent.add(entries[(int) (sequence % entries.length)]);
+        }
+        return recent;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        logExecutor.shutdown();
+    }
+}
@@ -0,0 +1,42 @@
+package com.yejianfengblue.ldplayer.command;
+
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One executed command kept in {@link CommandTranscript}.
+ */
+@Value
+public class CommandTranscriptEntry {
+
+    long sequence;
+
+    Instant startedAt;
+
+    String command;
+
+    /**
+     * {@code null} if the command output could not be read
+     */
+    Integer exitValue;
+
+    long durationMillis;
+
+    /**
+     * Output lines, cut off at the configured character limit
+     */
+    List<String> outputLines;
+
+    boolean outputTruncated;
+
+    /**
+     * {@code null} if the command output is read successfully
+     */
+    String failure;
+
+    boolean isFailed() {
+        return failure != null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.yejianfengblue.ldplayer.command;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Wait on or kill processes which are not started by this JVM, identified by pid.
+ */
+public final class ProcessTree {
+
+    private ProcessTree() {
+    }
+
+    /**
+     * Pids which are not alive, or not positive, are considered exited already.
+     *
+     * @return true if all processes exit within timeout
+     * @throws InterruptedException  interrupted when wait
+     */
+    public static boolean awaitExit(Collection<Long> pids, long timeout, TimeUnit unit) throws InterruptedException {
+
+        CompletableFuture<?>[] exits = pids.stream()
+                .filter(pid -> pid > 0)
+                .map(ProcessHandle::of)
+                .flatMap(Optional::stream)
+                .map(ProcessHandle::onExit)
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(exits).get(timeout, unit);
+            return true;
+        } catch (TimeoutException timeoutException) {
+            return false;
+        } catch (ExecutionException executionException) {
+            // onExit never completes exceptionally
+            return true;
+        }
+    }
+
+    /**
+     * Forcibly kill the process and all its descendants, descendants first.
+     */
+    public static void destroyForcibly(long pid) {
+
+        if (pid > 0) {
+            ProcessHandle.of(pid).ifPresent(processHandle -> {
+                processHandle.descendants().forEach(ProcessHandle::destroyForcibly);
+                processHandle.destroyForcibly();
+            });
+        }
+    }
+}
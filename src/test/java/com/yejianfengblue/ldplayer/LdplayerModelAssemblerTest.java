@@ -0,0 +1,127 @@
+package com.yejianfengblue.ldplayer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static org.mockito.BDDMockito.given;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Links expanded from path templates must be identical to the ones built by {@code linkTo(methodOn(...))}
+ */
+@WebMvcTest(LdplayerController.class)
+@Import({LdplayerModelAssembler.class, LdplayerIdempotencyStore.class})
+class LdplayerModelAssemblerTest {
+
+    private static final Ldplayer STOPPED = new Ldplayer("stopped", 0, false, false);
+
+    private static final Ldplayer RUNNING = new Ldplayer("running", 12, true, true);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private LdplayerService ldplayerService;
+
+    @MockBean
+    private LdplayerBulkService ldplayerBulkService;
+
+    @Test
+    void getAll_atRoot_linksIdenticalToMethodOn() throws Exception {
+
+        assertGetAllLinks(get("/ldplayers"));
+    }
+
+    @Test
+    void getAll_underContextPath_linksIdenticalToMethodOn() throws Exception {
+
+        assertGetAllLinks(get("/app/ldplayers").contextPath("/app"));
+    }
+
+    @Test
+    void getOne_underContextPath_linksIdenticalToMethodOn() throws Exception {
+
+        given(ldplayerService.get(RUNNING.getIndex())).willReturn(Optional.of(RUNNING));
+        MockHttpServletRequestBuilder request = get("/app/ldplayers/12").contextPath("/app");
+
+        mockMvc.perform(request.accept(MediaTypes.HAL_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._links.self.href").value(methodOnSelfHref(request, RUNNING)))
+                .andExpect(jsonPath("$._links.quit.href").value(methodOnQuitHref(request, RUNNING)))
+                .andExpect(jsonPath("$._links.launch").doesNotExist());
+    }
+
+    private void assertGetAllLinks(MockHttpServletRequestBuilder request) throws Exception {
+
+        given(ldplayerService.getAll()).willReturn(List.of(STOPPED, RUNNING));
+
+        mockMvc.perform(request.accept(MediaTypes.HAL_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.ldplayerList[0]._links.self.href")
+                        .value(methodOnSelfHref(request, STOPPED)))
+                .andExpect(jsonPath("$._embedded.ldplayerList[0]._links.launch.href")
+                        .value(methodOnLaunchHref(request, STOPPED)))
+                .andExpect(jsonPath("$._embedded.ldplayerList[0]._links.quit").doesNotExist())
+                .andExpect(jsonPath("$._embedded.ldplayerList[1]._links.self.href")
+                        .value(methodOnSelfHref(request, RUNNING)))
+                .andExpect(jsonPath("$._embedded.ldplayerList[1]._links.quit.href")
+                        .value(methodOnQuitHref(request, RUNNING)))
+                .andExpect(jsonPath("$._embedded.ldplayerList[1]._links.launch").doesNotExist());
+    }
+
+    private static String methodOnSelfHref(MockHttpServletRequestBuilder request, Ldplayer ldplayer)
+            throws Exception {
+
+        return inRequest(request, () ->
+                linkTo(methodOn(LdplayerController.class).getOne(ldplayer.getIndex())).withSelfRel().getHref());
+    }
+
+    private static String methodOnLaunchHref(MockHttpServletRequestBuilder request, Ldplayer ldplayer)
+            throws Exception {
+
+        return inRequest(request, () ->
+                linkTo(methodOn(LdplayerController.class).launch(ldplayer.getIndex(), null)).withRel(
+                        LdplayerLinks.LAUNCH_REL).getHref());
+    }
+
+    private static String methodOnQuitHref(MockHttpServletRequestBuilder request, Ldplayer ldplayer)
+            throws Exception {
+
+        return inRequest(request, () ->
+                linkTo(methodOn(LdplayerController.class).quit(ldplayer.getIndex(), null)).withRel(
+                        LdplayerLinks.QUIT_REL).getHref());
+    }
+
+    /**
+     * Build the link against the same request as the one performed, as {@code linkTo} does within a request
+     */
+    private static String inRequest(MockHttpServletRequestBuilder request, Callable<String> linkBuilding)
+            throws Exception {
+
+        MockHttpServletRequest servletRequest = request.buildRequest(new MockServletContext());
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(servletRequest));
+        try {
+            return linkBuilding.call();
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+}
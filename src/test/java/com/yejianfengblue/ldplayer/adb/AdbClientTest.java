@@ -0,0 +1,273 @@
+package com.yejianfengblue.ldplayer.adb;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdbClientTest {
+
+    private static final int FAKE_MAX_PAYLOAD = 4096;
+
+    private FakeAdbd fakeAdbd;
+
+    private AdbClient adbClient;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fakeAdbd = new FakeAdbd();
+        // index 0 connects to the base port
+        adbClient = new AdbClient("127.0.0.1", fakeAdbd.getPort(), 5);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        adbClient.disconnectAll();
+        fakeAdbd.close();
+    }
+
+    @Test
+    void shell_afterHandshake_returnsOutput() throws Exception {
+
+        assertThat(adbClient.shell(0, "getprop ro.product.model")).isEqualTo("output of getprop ro.product.model");
+        // the connection is kept for the next command
+        assertThat(adbClient.shell(0, "id")).isEqualTo("output of id");
+        assertThat(fakeAdbd.connections).isEqualTo(1);
+    }
+
+    @Test
+    void putSettings_allOverOneConnection() throws Exception {
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("global_http_proxy_host", "10.0.0.1");
+        settings.put("global_http_proxy_port", "8888");
+        settings.put("global_http_proxy_exclusion_list", "it's.local");
+
+        adbClient.putSettings(0, "global", settings);
+
+        assertThat(fakeAdbd.destinations).containsExactly(
+                "shell:settings put global global_http_proxy_host '10.0.0.1'",
+                "shell:settings put global global_http_proxy_port '8888'",
+                "shell:settings put global global_http_proxy_exclusion_list 'it'\\''s.local'");
+        assertThat(fakeAdbd.connections).isEqualTo(1);
+    }
+
+    @Test
+    void push_largeFile_isChunkedToMaxPayloadOfAdbd(@TempDir Path tempDir) throws Exception {
+
+        byte[] content = new byte[200 * 1024];
+        new Random(0).nextBytes(content);
+        Path localPath = tempDir.resolve("cert.pem");
+        Files.write(localPath, content);
+
+        adbClient.push(0, localPath, "/system/etc/security/cacerts/cert.pem", 0644);
+
+        assertThat(fakeAdbd.pushedPathAndMode).isEqualTo("/system/etc/security/cacerts/cert.pem,420");
+        assertThat(fakeAdbd.pushedContent.toByteArray()).isEqualTo(content);
+        assertThat(fakeAdbd.writeLengths).hasSizeGreaterThan(content.length / FAKE_MAX_PAYLOAD);
+        assertThat(fakeAdbd.writeLengths).allSatisfy(length -> assertThat(length).isLessThanOrEqualTo(FAKE_MAX_PAYLOAD));
+    }
+
+    @Test
+    void shell_refusedByAdbd_throwsAndConnectionIsStillUsable() throws Exception {
+
+        assertThatThrownBy(() -> adbClient.shell(0, "refuse me"))
+                .isInstanceOf(AdbFailureException.class)
+                .hasMessageContaining("Fail to open 'shell:refuse me'");
+
+        assertThat(adbClient.shell(0, "id")).isEqualTo("output of id");
+    }
+
+    @Test
+    void putSettings_connectionDroppedBeforeCompletion_throws() throws Exception {
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("global_http_proxy_host", "10.0.0.1");
+        settings.put("global_http_proxy_port", "drop-connection");
+
+        // no output is not success if adbd never closes the stream
+        assertThatThrownBy(() -> adbClient.putSettings(0, "global", settings))
+                .isInstanceOf(AdbFailureException.class)
+                .hasMessageContaining("is closed before completion");
+    }
+
+    @Test
+    void shell_connectionDroppedBeforeCompletion_throwsAndReconnects() throws Exception {
+
+        assertThatThrownBy(() -> adbClient.shell(0, "chmod 644 drop-connection"))
+                .isInstanceOf(AdbFailureException.class)
+                .hasMessageContaining("is closed before completion");
+
+        assertThat(adbClient.shell(0, "id")).isEqualTo("output of id");
+        assertThat(fakeAdbd.connections).isEqualTo(2);
+    }
+
+    /**
+     * Accept connections on an ephemeral port, reply the handshake with a small max payload,
+     * acknowledge every WRTE with an OKAY, and serve {@code shell:} and {@code sync:} SEND.
+     * A shell command starting with {@code refuse} is refused.
+     * A shell command containing {@code drop-connection} is opened, then the connection is dropped.
+     */
+    private static class FakeAdbd implements Closeable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0);
+
+        private final List<String> destinations = new CopyOnWriteArrayList<>();
+
+        private final List<Integer> writeLengths = new CopyOnWriteArrayList<>();
+
+        private final ByteArrayOutputStream pushedContent = new ByteArrayOutputStream();
+
+        private volatile String pushedPathAndMode;
+
+        private volatile int connections = 0;
+
+        private int nextRemoteId = 1000;
+
+        FakeAdbd() throws IOException {
+            Thread acceptor = new Thread(this::acceptLoop, "fake-adbd");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (!serverSocket.isClosed()) {
+                    Socket socket = serverSocket.accept();
+                    connections++;
+                    Thread handler = new Thread(() -> serve(socket), "fake-adbd-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException ignored) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+
+            // sync data received so far by remote id
+            Map<Integer, ByteArrayOutputStream> syncBuffers = new LinkedHashMap<>();
+            try (socket) {
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                OutputStream outputStream = socket.getOutputStream();
+
+                AdbMessage connect = AdbMessage.readFrom(inputStream);
+                assertThat(connect.getCommand()).isEqualTo(AdbMessage.CNXN);
+                send(outputStream, AdbMessage.CNXN, connect.getArg0(), FAKE_MAX_PAYLOAD, "device::fake\0");
+
+                while (true) {
+                    AdbMessage message = AdbMessage.readFrom(inputStream);
+                    int localId = message.getArg0();
+                    switch (message.getCommand()) {
+                        case AdbMessage.OPEN:
+                            String destination = new String(message.getPayload(), UTF_8).replace("\0", "");
+                            int remoteId = nextRemoteId++;
+                            if (destination.startsWith("shell:refuse")) {
+                                send(outputStream, AdbMessage.CLSE, 0, localId, "");
+                            } else if (destination.equals("sync:")) {
+                                syncBuffers.put(remoteId, new ByteArrayOutputStream());
+                                send(outputStream, AdbMessage.OKAY, remoteId, localId, "");
+                            } else {
+                                destinations.add(destination);
+                                send(outputStream, AdbMessage.OKAY, remoteId, localId, "");
+                                if (destination.contains("drop-connection")) {
+                                    return;
+                                }
+                                if (!destination.startsWith("shell:settings put")) {
+                                    send(outputStream, AdbMessage.WRTE, remoteId, localId,
+                                            "output of " + destination.substring("shell:".length()));
+                                }
+                                send(outputStream, AdbMessage.CLSE, remoteId, localId, "");
+                            }
+                            break;
+                        case AdbMessage.WRTE:
+                            writeLengths.add(message.getPayload().length);
+                            send(outputStream, AdbMessage.OKAY, message.getArg1(), localId, "");
+                            ByteArrayOutputStream syncBuffer = syncBuffers.get(message.getArg1());
+                            syncBuffer.write(message.getPayload());
+                            onSync(outputStream, message.getArg1(), localId, syncBuffer);
+                            break;
+                        default:
+                            // OKAY of our WRTE, CLSE of a stream
+                    }
+                }
+            } catch (IOException ignored) {
+                // closed by client
+            }
+        }
+
+        /**
+         * Consume complete sync requests from the buffer
+         */
+        private void onSync(OutputStream outputStream, int remoteId, int localId, ByteArrayOutputStream syncBuffer)
+                throws IOException {
+
+            byte[] buffered = syncBuffer.toByteArray();
+            int offset = 0;
+            while (buffered.length - offset >= 8) {
+                String id = new String(buffered, offset, 4, UTF_8);
+                int value = ByteBuffer.wrap(buffered, offset + 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                if (id.equals("SEND") || id.equals("DATA")) {
+                    if (buffered.length - offset - 8 < value) {
+                        break;
+                    }
+                    byte[] data = Arrays.copyOfRange(buffered, offset + 8, offset + 8 + value);
+                    if (id.equals("SEND")) {
+                        pushedPathAndMode = new String(data, UTF_8);
+                    } else {
+                        pushedContent.write(data);
+                    }
+                    offset += 8 + value;
+                } else if (id.equals("DONE")) {
+                    send(outputStream, AdbMessage.WRTE, remoteId, localId, "OKAY\0\0\0\0");
+                    offset += 8;
+                } else if (id.equals("QUIT")) {
+                    send(outputStream, AdbMessage.CLSE, remoteId, localId, "");
+                    offset += 8;
+                } else {
+                    throw new IOException("Unexpected sync request " + id);
+                }
+            }
+            syncBuffer.reset();
+            syncBuffer.write(buffered, offset, buffered.length - offset);
+        }
+
+        private static void send(OutputStream outputStream, int command, int arg0, int arg1, String payload)
+                throws IOException {
+            new AdbMessage(command, arg0, arg1, payload.getBytes(UTF_8)).writeTo(outputStream);
+        }
+    }
+}
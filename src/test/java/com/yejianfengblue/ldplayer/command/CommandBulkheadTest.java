@@ -0,0 +1,113 @@
+package com.yejianfengblue.ldplayer.command;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandBulkheadTest {
+
+    private final CommandBulkhead bulkhead = new CommandBulkhead(CommandLane.MUTATION, 1, 1);
+
+    @AfterEach
+    void tearDown() {
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void run_callerInterrupted_commandIsCompletedOnlyWhenItEnds() throws Exception {
+
+        CountDownLatch commandStarted = new CountDownLatch(1);
+        CountDownLatch commandMayEnd = new CountDownLatch(1);
+        AtomicReference<Throwable> callerResult = new AtomicReference<>();
+
+        Thread caller = new Thread(() -> {
+            try {
+                bulkhead.run("slow", () -> {
+                    commandStarted.countDown();
+                    // like a process which outlives the interrupt
+                    while (true) {
+                        try {
+                            commandMayEnd.await();
+                            return "done";
+                        } catch (InterruptedException ignored) {
+                            // keep running
+                        }
+                    }
+                });
+            } catch (Throwable throwable) {
+                callerResult.set(throwable);
+            }
+        });
+        caller.start();
+        assertThat(commandStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        caller.interrupt();
+        caller.join(5000);
+        assertThat(callerResult.get()).isInstanceOf(InterruptedException.class);
+        assertThat(bulkhead.getMetrics().getCompleted()).isEqualTo(0);
+        assertThat(bulkhead.getMetrics().getActive()).isEqualTo(1);
+
+        commandMayEnd.countDown();
+        awaitCompleted(1);
+        assertThat(bulkhead.getMetrics().getActive()).isEqualTo(0);
+    }
+
+    @Test
+    void run_callerInterruptedWhileQueued_commandIsCompletedWithoutRunning() throws Exception {
+
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch firstMayEnd = new CountDownLatch(1);
+        Thread first = new Thread(() -> {
+            try {
+                bulkhead.run("first", () -> {
+                    firstStarted.countDown();
+                    firstMayEnd.await();
+                    return null;
+                });
+            } catch (Exception ignored) {
+                // not the subject
+            }
+        });
+        first.start();
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicReference<Boolean> queuedRan = new AtomicReference<>(false);
+        Thread queued = new Thread(() -> {
+            try {
+                bulkhead.run("queued", () -> {
+                    queuedRan.set(true);
+                    return null;
+                });
+            } catch (Exception ignored) {
+                // interrupted
+            }
+        });
+        queued.start();
+        while (bulkhead.getMetrics().getQueued() == 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        queued.interrupt();
+        queued.join(5000);
+        assertThat(bulkhead.getMetrics().getCompleted()).isEqualTo(1);
+
+        firstMayEnd.countDown();
+        awaitCompleted(2);
+        assertThat(queuedRan.get()).isFalse();
+        assertThat(bulkhead.getMetrics().getAccepted()).isEqualTo(2);
+    }
+
+    private void awaitCompleted(long completed) throws InterruptedException {
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bulkhead.getMetrics().getCompleted() < completed && System.nanoTime() < deadlineNanos) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(bulkhead.getMetrics().getCompleted()).isEqualTo(completed);
+    }
+}
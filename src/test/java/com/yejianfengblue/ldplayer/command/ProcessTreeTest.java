@@ -0,0 +1,70 @@
+package com.yejianfengblue.ldplayer.command;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class ProcessTreeTest {
+
+    private Process process;
+
+    private List<ProcessHandle> children = List.of();
+
+    @AfterEach
+    void tearDown() {
+        // children are orphaned, rather than descendants, once the parent is killed
+        children.forEach(ProcessHandle::destroyForcibly);
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+
+    @Test
+    void awaitExit_exitedOrNotPositivePids_returnsTrueImmediately() throws Exception {
+
+        Process exited = new ProcessBuilder("true").start();
+        exited.waitFor();
+
+        assertThat(ProcessTree.awaitExit(List.of(exited.pid(), 0L, -1L), 1, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    void awaitExit_processTreeAlive_timesOut_thenDestroyForciblyKillsWholeTree() throws Exception {
+
+        process = new ProcessBuilder("sh", "-c", "sleep 100 & sleep 100 & wait").start();
+        children = awaitChildren(process, 2);
+        List<Long> pids = List.of(process.pid());
+
+        long startNanos = System.nanoTime();
+        assertThat(ProcessTree.awaitExit(pids, 500, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isGreaterThanOrEqualTo(500);
+
+        ProcessTree.destroyForcibly(process.pid());
+
+        List<Long> treePids = children.stream().map(ProcessHandle::pid).collect(Collectors.toList());
+        treePids.add(process.pid());
+        assertThat(ProcessTree.awaitExit(treePids, 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(process.isAlive()).isFalse();
+        assertThat(children).noneMatch(ProcessHandle::isAlive);
+    }
+
+    private static List<ProcessHandle> awaitChildren(Process process, int count) throws InterruptedException {
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<ProcessHandle> children = process.children().collect(Collectors.toList());
+        while (children.size() < count && System.nanoTime() < deadlineNanos) {
+            TimeUnit.MILLISECONDS.sleep(20);
+            children = process.children().collect(Collectors.toList());
+        }
+        assertThat(children).hasSize(count);
+        return children;
+    }
+}